@@ -36,36 +36,34 @@ class BestNearestNeighboursQuery extends Query {
 
     
     private void findNeighbours(Node node) {
-        PriorityQueue<NodeEntryPair> queue = new PriorityQueue<>(
-                Comparator.comparingDouble(p -> p.entry.getBoundingBox().findMinDistanceFromPoint(searchPoint))
-        );
+        double[] point = new double[searchPoint.size()];
+        for (int i = 0; i < point.length; i++)
+            point[i] = searchPoint.get(i);
 
-        for (Entry e : node.getEntries()) {
-            queue.add(new NodeEntryPair(node, e));
-        }
+        // The entries are queued with their minimum distance, computed once from the packed bounds of their node
+        PriorityQueue<NodeEntryPair> queue = new PriorityQueue<>(Comparator.comparingDouble(p -> p.minDistance));
+        DataBlockScanner scanner = new DataBlockScanner();
+        addEntries(queue, PackedNode.fromNode(node), point);
 
         while (!queue.isEmpty()) {
             NodeEntryPair entryPair = queue.poll();
-            Entry entry = entryPair.entry;
-
-            double mindist = entry.getBoundingBox().findMinDistanceFromPoint(searchPoint);
+            PackedNode entryNode = entryPair.node;
 
-            if (nearestNeighbours.size() == k && mindist >= searchPointRadius) continue;
+            if (nearestNeighbours.size() == k && entryPair.minDistance >= searchPointRadius) continue;
 
 
-            Node childNode = FilesManager.readIndexFileBlock(entry.getChildNodeBlockId());
-            if (childNode == null) continue;
-
-            if (childNode.getNodeLevelInTree() == RStarTree.getLeafLevel()){
-                ArrayList<Record> records = FilesManager.readDataFileBlock(entry.getChildNodeBlockId());
-                if (records != null){
-                    for (Record record : records) {
-                        double dist = calculateEuclideanDistance(record.getCoordinates(), searchPoint);
+            // Leaf entries point to datafile blocks, whose distances are computed on the coordinate columns
+            if (entryNode.isLeaf()){
+                DataBlockView block = FilesManager.readDataFileBlockView(entryNode.getChildBlockId(entryPair.entry));
+                if (block != null){
+                    double[] distances = scanner.computeDistances(block, point);
+                    for (int slot = 0; slot < block.getTotalRecords(); slot++) {
+                        double dist = distances[slot];
                         if (nearestNeighbours.size() < k){
-                            nearestNeighbours.add(new RecordDistancePair(record, dist));
+                            nearestNeighbours.add(new RecordDistancePair(block.getRecord(slot), dist));
                         } else if (dist < nearestNeighbours.peek().getDistance()){
                             nearestNeighbours.poll();
-                            nearestNeighbours.add(new RecordDistancePair(record, dist));
+                            nearestNeighbours.add(new RecordDistancePair(block.getRecord(slot), dist));
                             searchPointRadius = nearestNeighbours.peek().getDistance();
                         }
 
@@ -75,28 +73,29 @@ class BestNearestNeighboursQuery extends Query {
                     }
                 }
             } else {
-                for(Entry childEntry : childNode.getEntries()){
-                    queue.add(new NodeEntryPair(childNode, childEntry));
-                }
+                PackedNode childNode = FilesManager.readPackedIndexFileBlock(entryNode.getChildBlockId(entryPair.entry));
+                if (childNode == null) continue;
+                addEntries(queue, childNode, point);
             }
         }
     }
 
-    private double calculateEuclideanDistance(ArrayList<Double> p, ArrayList<Double> q) {
-        double sum = 0;
-        for (int i = 0; i < p.size(); i++) {
-            double diff = p.get(i) - q.get(i);
-            sum += diff * diff;
+    private void addEntries(PriorityQueue<NodeEntryPair> queue, PackedNode node, double[] point) {
+        for (int entry = 0; entry < node.getTotalEntries(); entry++) {
+            double minDistance = node.findMinDistanceFromPoint(entry, point);
+            if (nearestNeighbours.size() < k || minDistance < searchPointRadius)
+                queue.add(new NodeEntryPair(node, entry, minDistance));
         }
-        return Math.sqrt(sum);
     }
 
     private static class NodeEntryPair {
-        Node node;
-        Entry entry;
-        NodeEntryPair(Node node, Entry entry) {
+        PackedNode node;
+        int entry;
+        double minDistance;
+        NodeEntryPair(PackedNode node, int entry, double minDistance) {
             this.node = node;
             this.entry = entry;
+            this.minDistance = minDistance;
         }
     }
     }
@@ -8,46 +8,40 @@ public class BestRangeQuery {
         double[] minCoordinate = new double[dims];
         double[] maxCoordinate = new double[dims];
 
-        ArrayList<Bounds> boundsList = queryBoundingBox.getBounds();
         for (int i = 0; i < dims; i++) {
-            Bounds b = boundsList.get(i);
-            minCoordinate[i] = b.getLower();
-            maxCoordinate[i] = b.getUpper();
-        }
-
-        for (Entry entry : node.getEntries()) {
-            BoundingBox entryBoundingBox = entry.getBoundingBox();
-
-            if (BoundingBox.checkOverlap(entryBoundingBox, queryBoundingBox)) {
-                if (node.getNodeLevelInTree() == RStarTree.getLeafLevel()) {
-                    ArrayList<Record> recordsList = FilesManager.readDataFileBlock(entry.getChildNodeBlockId());
-                    if (recordsList != null) {
-                        for (Record record : recordsList) {
-                            if (isRecordInRange(record, minCoordinate, maxCoordinate)) {
-                                results.add(record);
-                            }
-                        }
-                    }
-                } else {
-                    Node childNode = FilesManager.readIndexFileBlock(entry.getChildNodeBlockId());
-                    if (childNode != null) {
-                        results.addAll(bestRangeQuery(childNode, queryBoundingBox));
-                    }
-                }
-            }
+            minCoordinate[i] = queryBoundingBox.getLower(i);
+            maxCoordinate[i] = queryBoundingBox.getUpper(i);
         }
 
+        searchNode(PackedNode.fromNode(node), minCoordinate, maxCoordinate, results, new DataBlockScanner());
         return results;
     }
 
-    private static boolean isRecordInRange(Record record, double[] minCoordinate, double[] maxCoordinate) {
-        ArrayList<Double> coordinates = record.getCoordinates();
-        for (int i = 0; i < coordinates.size(); i++) {
-            double val = coordinates.get(i);
-            if (val < minCoordinate[i] || val > maxCoordinate[i]) {
-                return false;
+    // The entries of the nodes are checked against the query as packed arrays of bounds
+    private static void searchNode(PackedNode node, double[] minCoordinate, double[] maxCoordinate, ArrayList<Record> results, DataBlockScanner scanner) {
+        for (int entry = 0; entry < node.getTotalEntries(); entry++) {
+            if (!node.overlaps(entry, minCoordinate, maxCoordinate))
+                continue;
+
+            if (node.isLeaf()) {
+                // The records of the block are selected on its coordinate columns, only the ones in range are
+                // materialized. When the MBR of the block is inside the query all of them are in range
+                DataBlockView block = FilesManager.readDataFileBlockView(node.getChildBlockId(entry));
+                if (block != null && node.isInside(entry, minCoordinate, maxCoordinate)) {
+                    for (int slot = 0; slot < block.getTotalRecords(); slot++)
+                        results.add(block.getRecord(slot));
+                } else if (block != null) {
+                    int selected = scanner.selectInRange(block, minCoordinate, maxCoordinate);
+                    int[] selection = scanner.getSelection();
+                    for (int i = 0; i < selected; i++)
+                        results.add(block.getRecord(selection[i]));
+                }
+            } else {
+                PackedNode childNode = FilesManager.readPackedIndexFileBlock(node.getChildBlockId(entry));
+                if (childNode != null) {
+                    searchNode(childNode, minCoordinate, maxCoordinate, results, scanner);
+                }
             }
         }
-        return true;
     }
 }
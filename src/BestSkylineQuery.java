@@ -20,13 +20,18 @@ public class BestSkylineQuery {
 
              if (e instanceof LeafEntry){
                  long recordsID = e.getChildNodeBlockId();
-                 ArrayList<Record> recordsList = FilesManager.readDataFileBlock(recordsID);
-                 for (Record r: recordsList){
-                     ArrayList<Double> coordinates = r.getCoordinates();
+                 DataBlockView block = FilesManager.readDataFileBlockView(recordsID);
+                 if (block == null) continue;
+                 // Dominance is checked on the coordinates read in place, only skyline candidates are materialized.
+                 // A record with an extent takes part with its lower corner, its best point in every dimension
+                 double[] coordinates = new double[block.getDimensions()];
+                 for (int slot = 0; slot < block.getTotalRecords(); slot++){
+                     for (int d = 0; d < block.getDimensions(); d++)
+                         coordinates[d] = block.getCoordinate(slot, d);
                      if (!isDominated(coordinates, skylineResult)){
-                         skylineResult.removeIf(s -> dominates(coordinates, s.getCoordinates()));
+                         skylineResult.removeIf(s -> dominates(coordinates, s.getCoordinateArray()));
 
-                         skylineResult.add(r);
+                         skylineResult.add(block.getRecord(slot));
                      }
                  }
              }
@@ -40,22 +45,22 @@ public class BestSkylineQuery {
          return skylineResult;
      }
 
-    private static boolean dominates(ArrayList<Double> skylinePoint, ArrayList<Double> candidatePoint){
+    private static boolean dominates(double[] skylinePoint, double[] candidatePoint){
         boolean betterInOne = false;
-        for (int i=0; i<skylinePoint.size(); i++){
-            if (skylinePoint.get(i)>candidatePoint.get(i)){
+        for (int i=0; i<skylinePoint.length; i++){
+            if (skylinePoint[i]>candidatePoint[i]){
                 return false;
             }
-            else if (skylinePoint.get(i)<candidatePoint.get(i)){
+            else if (skylinePoint[i]<candidatePoint[i]){
                 betterInOne = true;
             }
         }
         return betterInOne;
     }
 
-     private static boolean isDominated(ArrayList<Double> candidatePoint, ArrayList<Record> skyline){
+     private static boolean isDominated(double[] candidatePoint, ArrayList<Record> skyline){
          for (Record s : skyline) {
-             if (dominates(s.getCoordinates(), candidatePoint)) return true;
+             if (dominates(s.getCoordinateArray(), candidatePoint)) return true;
          }
          return false;
      }
@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+// Fixed-layout binary encoding of the blocks stored in the datafile and the indexfile.
+// Every block starts with the same header: magic number (int), format version (byte), block type (byte),
+// data dimensions (short), followed by the layout of the specific block type:
+//  - Metadata block: field count (int) and the metadata fields (int each)
+//  - Data block:     record count (int), used bytes (int), one slot per record holding
+//                    [record ID (long), coordinates (double per dimension), name offset (short), name length (short)]
+//                    and the name area where the UTF-8 bytes of the names are stored one after the other
+//                    If any record of a data block (of any layout) has an extent, EXTENTS_FLAG is set in the
+//                    dimensions of its header and every record stores its lower coordinates followed by its upper
+//                    coordinates, so there are two coordinate columns per dimension
+//  - Compressed data block: record count (int), used bytes (int), compression (byte) and the records compressed
+//                    by the DataBlockCodec of the compression
+//  - Columnar data block: record count (int), used bytes (int), the record IDs (long each), the coordinates of
+//                    each dimension one column after the other (double each), the end of every name in the name
+//                    area (int each) and the name area
+//  - Index block:    node level (int), entry count (int), the MBRs of all entries packed one after the other
+//                    [lower bounds per dimension, upper bounds per dimension] and the child block IDs (long each)
+//  - Record index page: entry count (int), next overflow page (int, 0 if none) and the entries
+//                    [record ID (long), datafile block ID (long)]
+//  - Free space page: the bytes used by each datafile block (int each)
+class BlockFormat {
+    static final int MAGIC = 0x52535442; // "RSTB", never a valid length of a block written with Java serialization
+    static final byte FORMAT_VERSION = 1;
+    static final byte METADATA_BLOCK = 0;
+    static final byte DATA_BLOCK = 1;
+    static final byte INDEX_BLOCK = 2;
+    static final byte RECORD_INDEX_BLOCK = 3;
+    static final byte FREE_SPACE_BLOCK = 4;
+    static final byte COMPRESSED_DATA_BLOCK = 5;
+    static final byte COLUMNAR_DATA_BLOCK = 6;
+
+    // Layout of the data blocks, chosen when the datafile is created and stored in its metadata
+    static final byte ROW_DATA_LAYOUT = 0; // Data blocks
+    static final byte COMPRESSED_DATA_LAYOUT = 1; // Compressed data blocks, or data blocks if they are not smaller
+    static final byte COLUMNAR_DATA_LAYOUT = 2; // Columnar data blocks
+
+    // Compressions of the compressed data blocks
+    static final byte XOR_DEFLATE_COMPRESSION = 1;
+
+    static final int HEADER_SIZE = 8; // magic + version + type + dimensions
+    static final int DATA_HEADER_SIZE = HEADER_SIZE + 8; // + record count + used bytes
+    static final int INDEX_HEADER_SIZE = HEADER_SIZE + 8; // + level + entry count
+    static final int COMPRESSED_DATA_HEADER_SIZE = DATA_HEADER_SIZE + 1; // + compression
+    static final int RECORD_INDEX_HEADER_SIZE = HEADER_SIZE + 8; // + entry count + next overflow page
+    static final int RECORD_INDEX_ENTRY_SIZE = 2 * Long.BYTES;
+    static final int NO_CHILD_BLOCK_ID = -1;
+    static final int EXTENTS_FLAG = 0x8000; // Set in the dimensions of the data blocks whose records have extents
+
+    // Returns true if the block was written using the binary block format (instead of Java serialization)
+    static boolean isBinaryBlock(ByteBuffer block) {
+        return block.capacity() >= HEADER_SIZE && block.getInt(0) == MAGIC;
+    }
+
+    // Slot of a record in a data block with the given coordinate columns (the dimensions, or twice the dimensions
+    // in a block with extents)
+    static int getRecordSlotSize(int coordinateColumns) {
+        return Long.BYTES + coordinateColumns * Double.BYTES + 2 * Short.BYTES;
+    }
+
+    static int getCoordinateColumns(int dimensions, boolean extents) {
+        return extents ? 2 * dimensions : dimensions;
+    }
+
+    // Value of the coordinate column of the record: the lower coordinates first, then the upper ones
+    static double getCoordinateColumnValue(Record record, int dimensions, int column) {
+        return column < dimensions ? record.getCoordinateFromDimension(column) : record.getUpperCoordinateFromDimension(column - dimensions);
+    }
+
+    static boolean hasExtents(ArrayList<Record> records) {
+        for (Record record : records) {
+            if (record.hasExtent())
+                return true;
+        }
+        return false;
+    }
+
+    // Bytes taken by the record in a data block, its slot and its name (the same in a columnar data block)
+    static int getRecordSize(Record record, int dimensions) {
+        return getRecordSize(record, dimensions, record.hasExtent());
+    }
+
+    static int getRecordSize(Record record, int dimensions, boolean extents) {
+        String name = record.getName();
+        return getRecordSlotSize(getCoordinateColumns(dimensions, extents)) + (name == null ? 0 : name.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    // Bytes taken by the records in an uncompressed data block, including the header of the block
+    static int getDataBlockSize(ArrayList<Record> records, int dimensions) {
+        boolean extents = hasExtents(records);
+        int size = DATA_HEADER_SIZE;
+        for (Record record : records)
+            size += getRecordSize(record, dimensions, extents);
+        return size;
+    }
+
+    // Bytes used by a data block of any layout
+    static int getDataBlockUsedBytes(byte[] block) {
+        return getDataBlockUsedBytes(ByteBuffer.wrap(block));
+    }
+
+    static int getDataBlockUsedBytes(ByteBuffer block) {
+        return block.getInt(HEADER_SIZE + Integer.BYTES);
+    }
+
+    static int getIndexEntrySize(int dimensions) {
+        return 2 * dimensions * Double.BYTES + Long.BYTES;
+    }
+
+    private static void writeHeader(ByteBuffer buffer, byte blockType, int dimensions) {
+        buffer.putInt(MAGIC);
+        buffer.put(FORMAT_VERSION);
+        buffer.put(blockType);
+        buffer.putShort((short) dimensions);
+    }
+
+    // Reads and validates the header at the start of the block, returning the data dimensions stored in it
+    private static int readHeader(ByteBuffer block, byte expectedBlockType) throws IOException {
+        if (block.getInt(0) != MAGIC)
+            throw new IOException("The block is not in the binary block format");
+        byte version = block.get(4);
+        if (version > FORMAT_VERSION)
+            throw new IOException("Unsupported block format version: " + version);
+        byte blockType = block.get(5);
+        if (blockType != expectedBlockType)
+            throw new IOException("Expected block type " + expectedBlockType + " but found " + blockType);
+        return block.getShort(6) & ~EXTENTS_FLAG & 0xFFFF;
+    }
+
+    // Returns true if the records of the data block (of any layout) store their upper coordinates
+    static boolean hasExtents(ByteBuffer block) {
+        return (block.getShort(6) & EXTENTS_FLAG) != 0;
+    }
+
+    private static int getDataHeaderDimensions(int dimensions, boolean extents) {
+        return extents ? dimensions | EXTENTS_FLAG : dimensions;
+    }
+
+    static int readDataBlockHeader(ByteBuffer block) throws IOException {
+        return readHeader(block, DATA_BLOCK);
+    }
+
+    static int readIndexBlockHeader(ByteBuffer block) throws IOException {
+        return readHeader(block, INDEX_BLOCK);
+    }
+
+    // Bytes of the index block used by the header and the entries
+    static int getIndexBlockUsedBytes(ByteBuffer block) throws IOException {
+        return INDEX_HEADER_SIZE + block.getInt(HEADER_SIZE + Integer.BYTES) * getIndexEntrySize(readIndexBlockHeader(block));
+    }
+
+    static int getMaxRecordIndexEntries(int blockSize) {
+        return (blockSize - RECORD_INDEX_HEADER_SIZE) / RECORD_INDEX_ENTRY_SIZE;
+    }
+
+    // Returns an empty record index page, whose entries are then read and written in place
+    static ByteBuffer createRecordIndexPage(int dimensions, int blockSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        writeHeader(buffer, RECORD_INDEX_BLOCK, dimensions);
+        return buffer;
+    }
+
+    static void readRecordIndexPageHeader(ByteBuffer block) throws IOException {
+        readHeader(block, RECORD_INDEX_BLOCK);
+    }
+
+    static int getMaxFreeSpaceEntries(int blockSize) {
+        return (blockSize - HEADER_SIZE) / Integer.BYTES;
+    }
+
+    static byte[] encodeFreeSpacePage(int[] usedBytes, int firstBlockId, int dimensions, int blockSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        writeHeader(buffer, FREE_SPACE_BLOCK, dimensions);
+        int lastBlockId = Math.min(usedBytes.length, firstBlockId + getMaxFreeSpaceEntries(blockSize));
+        for (int blockId = firstBlockId; blockId < lastBlockId; blockId++)
+            buffer.putInt(usedBytes[blockId]);
+        return buffer.array();
+    }
+
+    // Reads the used bytes of the blocks stored in the page into usedBytes, starting from firstBlockId
+    static void decodeFreeSpacePage(ByteBuffer block, int[] usedBytes, int firstBlockId) throws IOException {
+        readHeader(block, FREE_SPACE_BLOCK);
+        int lastBlockId = Math.min(usedBytes.length, firstBlockId + getMaxFreeSpaceEntries(block.capacity()));
+        for (int blockId = firstBlockId; blockId < lastBlockId; blockId++)
+            usedBytes[blockId] = block.getInt(HEADER_SIZE + (blockId - firstBlockId) * Integer.BYTES);
+    }
+
+    static byte[] encodeMetaData(ArrayList<Integer> metaData, int blockSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        writeHeader(buffer, METADATA_BLOCK, metaData.get(0));
+        buffer.putInt(metaData.size());
+        for (Integer field : metaData)
+            buffer.putInt(field);
+        return buffer.array();
+    }
+
+    static ArrayList<Integer> decodeMetaData(ByteBuffer block) throws IOException {
+        readHeader(block, METADATA_BLOCK);
+        int totalFields = block.getInt(HEADER_SIZE);
+        ArrayList<Integer> metaData = new ArrayList<>(totalFields);
+        for (int i = 0; i < totalFields; i++)
+            metaData.add(block.getInt(HEADER_SIZE + (i + 1) * Integer.BYTES));
+        return metaData;
+    }
+
+    static byte[] encodeDataBlock(ArrayList<Record> records, int dimensions, int blockSize) {
+        boolean extents = hasExtents(records);
+        int columns = getCoordinateColumns(dimensions, extents);
+        int slotSize = getRecordSlotSize(columns);
+        int nameOffset = DATA_HEADER_SIZE + records.size() * slotSize;
+        byte[][] names = new byte[records.size()][];
+        int usedBytes = nameOffset;
+        for (int i = 0; i < records.size(); i++) {
+            String name = records.get(i).getName();
+            names[i] = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            usedBytes += names[i].length;
+        }
+        if (usedBytes > blockSize)
+            throw new IllegalStateException("Block too large to fit in one data block");
+
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        writeHeader(buffer, DATA_BLOCK, getDataHeaderDimensions(dimensions, extents));
+        buffer.putInt(records.size());
+        buffer.putInt(usedBytes);
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            buffer.putLong(record.getRecordID());
+            for (int column = 0; column < columns; column++)
+                buffer.putDouble(getCoordinateColumnValue(record, dimensions, column));
+            buffer.putShort((short) nameOffset);
+            buffer.putShort((short) names[i].length);
+            buffer.put(nameOffset, names[i]);
+            nameOffset += names[i].length;
+        }
+        return buffer.array();
+    }
+
+    // Encodes the records in the given data block layout. With the compressed layout, a block that does not become
+    // smaller when compressed, or has no records, is stored uncompressed. Returns null if the records do not fit in
+    // one block
+    static byte[] encodeDataBlock(ArrayList<Record> records, int dimensions, int blockSize, byte layout) {
+        if (layout == COMPRESSED_DATA_LAYOUT && !records.isEmpty()) {
+            byte[] block = encodeCompressedDataBlock(records, dimensions, blockSize);
+            if (block != null)
+                return block;
+        } else if (layout != ROW_DATA_LAYOUT && layout != COMPRESSED_DATA_LAYOUT && layout != COLUMNAR_DATA_LAYOUT) {
+            throw new IllegalArgumentException("Unknown data block layout: " + layout);
+        }
+        if (getDataBlockSize(records, dimensions) > blockSize)
+            return null;
+        if (layout == COLUMNAR_DATA_LAYOUT)
+            return encodeColumnarDataBlock(records, dimensions, blockSize);
+        return encodeDataBlock(records, dimensions, blockSize);
+    }
+
+    private static byte[] encodeColumnarDataBlock(ArrayList<Record> records, int dimensions, int blockSize) {
+        int totalRecords = records.size();
+        boolean extents = hasExtents(records);
+        int columns = getCoordinateColumns(dimensions, extents);
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        writeHeader(buffer, COLUMNAR_DATA_BLOCK, getDataHeaderDimensions(dimensions, extents));
+        buffer.putInt(totalRecords);
+        buffer.putInt(getDataBlockSize(records, dimensions));
+        for (Record record : records)
+            buffer.putLong(record.getRecordID());
+        for (int column = 0; column < columns; column++) {
+            for (Record record : records)
+                buffer.putDouble(getCoordinateColumnValue(record, dimensions, column));
+        }
+        int nameAreaOffset = getColumnarNameAreaOffset(totalRecords, columns);
+        int nameEnd = 0;
+        for (Record record : records) {
+            String name = record.getName();
+            byte[] nameBytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            buffer.put(nameAreaOffset + nameEnd, nameBytes);
+            nameEnd += nameBytes.length;
+            buffer.putInt(nameEnd);
+        }
+        return buffer.array();
+    }
+
+    static int readColumnarDataBlockHeader(ByteBuffer block) throws IOException {
+        return readHeader(block, COLUMNAR_DATA_BLOCK);
+    }
+
+    // Offsets of the columns in a columnar data block with the given amount of records and coordinate columns
+    static int getColumnarCoordinateOffset(int totalRecords, int column) {
+        return DATA_HEADER_SIZE + totalRecords * Long.BYTES + column * totalRecords * Double.BYTES;
+    }
+
+    static int getColumnarNameEndOffset(int totalRecords, int coordinateColumns) {
+        return getColumnarCoordinateOffset(totalRecords, coordinateColumns);
+    }
+
+    static int getColumnarNameAreaOffset(int totalRecords, int coordinateColumns) {
+        return getColumnarNameEndOffset(totalRecords, coordinateColumns) + totalRecords * Integer.BYTES;
+    }
+
+    private static byte[] encodeCompressedDataBlock(ArrayList<Record> records, int dimensions, int blockSize) {
+        byte[] block = new byte[blockSize];
+        boolean extents = hasExtents(records);
+        int maxCompressedLength = Math.min(blockSize, getDataBlockSize(records, dimensions)) - COMPRESSED_DATA_HEADER_SIZE;
+        int compressedLength = DataBlockCodec.compress(records, dimensions, extents, block, COMPRESSED_DATA_HEADER_SIZE, maxCompressedLength);
+        if (compressedLength < 0)
+            return null;
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        writeHeader(buffer, COMPRESSED_DATA_BLOCK, getDataHeaderDimensions(dimensions, extents));
+        buffer.putInt(records.size());
+        buffer.putInt(COMPRESSED_DATA_HEADER_SIZE + compressedLength);
+        buffer.put(XOR_DEFLATE_COMPRESSION);
+        return block;
+    }
+
+    // Returns a view over the records of a data block of any layout, decompressing them if the block is compressed
+    static DataBlockView decodeDataBlockView(ByteBuffer block) throws IOException {
+        if (block.get(5) == COLUMNAR_DATA_BLOCK)
+            return new ColumnarDataBlockView(block);
+        if (!isCompressedDataBlock(block))
+            return new DataBlockView(block);
+        int dimensions = readHeader(block, COMPRESSED_DATA_BLOCK);
+        int totalRecords = block.getInt(HEADER_SIZE);
+        int usedBytes = block.getInt(HEADER_SIZE + Integer.BYTES);
+        byte compression = block.get(DATA_HEADER_SIZE);
+        if (compression != XOR_DEFLATE_COMPRESSION)
+            throw new IOException("Unknown data block compression: " + compression);
+        return DataBlockCodec.decompress(block.slice(COMPRESSED_DATA_HEADER_SIZE, usedBytes - COMPRESSED_DATA_HEADER_SIZE), dimensions, hasExtents(block), totalRecords, usedBytes);
+    }
+
+    static boolean isCompressedDataBlock(ByteBuffer block) {
+        return block.get(5) == COMPRESSED_DATA_BLOCK;
+    }
+
+    static ArrayList<Record> decodeDataBlock(ByteBuffer block) throws IOException {
+        return decodeDataBlockView(block).getRecords();
+    }
+
+    static byte[] encodeIndexBlock(Node node, int dimensions, int blockSize) {
+        ArrayList<Entry> entries = node.getEntries();
+        if (INDEX_HEADER_SIZE + entries.size() * getIndexEntrySize(dimensions) > blockSize)
+            throw new IllegalStateException("Node too large to fit in one index block");
+
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        writeHeader(buffer, INDEX_BLOCK, dimensions);
+        buffer.putInt(node.getNodeLevelInTree());
+        buffer.putInt(entries.size());
+        for (Entry entry : entries) {
+            BoundingBox boundingBox = entry.getBoundingBox();
+            for (int d = 0; d < dimensions; d++)
+                buffer.putDouble(boundingBox.getLower(d));
+            for (int d = 0; d < dimensions; d++)
+                buffer.putDouble(boundingBox.getUpper(d));
+        }
+        for (Entry entry : entries) {
+            Long childNodeBlockId = entry.getChildNodeBlockId();
+            buffer.putLong(childNodeBlockId == null ? NO_CHILD_BLOCK_ID : childNodeBlockId);
+        }
+        return buffer.array();
+    }
+
+    // Entries of leaf nodes point to datafile blocks, therefore they are decoded as LeafEntries
+    static Node decodeIndexBlock(ByteBuffer block, long blockId) throws IOException {
+        int dimensions = readHeader(block, INDEX_BLOCK);
+        ByteBuffer buffer = block.duplicate().position(HEADER_SIZE);
+        int level = buffer.getInt();
+        int totalEntries = buffer.getInt();
+        ArrayList<BoundingBox> boundingBoxes = new ArrayList<>(totalEntries);
+        for (int i = 0; i < totalEntries; i++) {
+            double[] lower = new double[dimensions];
+            double[] upper = new double[dimensions];
+            for (int d = 0; d < dimensions; d++)
+                lower[d] = buffer.getDouble();
+            for (int d = 0; d < dimensions; d++)
+                upper[d] = buffer.getDouble();
+            boundingBoxes.add(new BoundingBox(lower, upper));
+        }
+        ArrayList<Entry> entries = new ArrayList<>(totalEntries);
+        for (int i = 0; i < totalEntries; i++) {
+            long childBlockId = buffer.getLong();
+            if (level == RStarTree.getLeafLevel()) {
+                entries.add(new LeafEntry(childBlockId, boundingBoxes.get(i)));
+            } else {
+                Entry entry = new Entry(boundingBoxes.get(i));
+                entry.setChildNodeBlockId(childBlockId);
+                entries.add(entry);
+            }
+        }
+        Node node = new Node(level, entries);
+        node.setNodeBlockId((int) blockId);
+        return node;
+    }
+
+    // Decodes an index block straight into the packed arrays of a PackedNode, without creating its entries
+    static PackedNode decodePackedIndexBlock(ByteBuffer block, long blockId) throws IOException {
+        int dimensions = readHeader(block, INDEX_BLOCK);
+        int level = block.getInt(HEADER_SIZE);
+        int totalEntries = block.getInt(HEADER_SIZE + Integer.BYTES);
+        double[] boundingBoxes = new double[totalEntries * 2 * dimensions];
+        long[] childBlockIds = new long[totalEntries];
+        int childBlockIdsOffset = INDEX_HEADER_SIZE + boundingBoxes.length * Double.BYTES;
+        block.duplicate().position(INDEX_HEADER_SIZE).asDoubleBuffer().get(boundingBoxes);
+        block.duplicate().position(childBlockIdsOffset).asLongBuffer().get(childBlockIds);
+        return new PackedNode(blockId, level, dimensions, boundingBoxes, childBlockIds);
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 
@@ -5,66 +8,100 @@ import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
 
 class BoundingBox implements Serializable {
-    private ArrayList<Bounds> bounds; // Bounds of each dimension
-    private Double area; // Area covered by the bounding box
-    private Double margin; // Total perimeter of the bounding box
-    private ArrayList<Double> center; // Centre point coordinates
+    private double[] lower; // Lower bound of each dimension
+    private double[] upper; // Upper bound of each dimension
+    private double area; // Area covered by the bounding box
+    private double margin; // Total perimeter of the bounding box
+    private transient double[] center; // Centre point coordinates, calculated when first needed
+
+    // Java serialization is only used for reading the nodes of the legacy indexfiles, which stored the bounds as an
+    // ArrayList<Bounds> along with the boxed area, margin and center
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("bounds", ArrayList.class),
+            new ObjectStreamField("area", Double.class),
+            new ObjectStreamField("margin", Double.class),
+            new ObjectStreamField("center", ArrayList.class)
+    };
+
+    // The arrays are kept by the bounding box and must not be modified afterwards
+    BoundingBox(double[] lower, double[] upper) {
+        for (int d = 0; d < lower.length; d++)
+        {
+            if (lower[d] > upper[d])
+                throw new IllegalArgumentException( "The lower value of the bounds cannot be bigger than the upper");
+        }
+        this.lower = lower;
+        this.upper = upper;
+        this.area = calculateArea();
+        this.margin = calculateMargin();
+    }
 
     public BoundingBox(ArrayList<Bounds> bounds) {
-        this.bounds = bounds;
+        setBounds(bounds);
         this.area = calculateArea();
         this.margin = calculateMargin();
-        this.center = getCenter();
     }
 
     public BoundingBox(Record record) {
-        ArrayList<Double> coords = record.getCoordinates();
-        ArrayList<Bounds> boundsList = new ArrayList<>();
-        for (double coord : coords) {
-            boundsList.add(new Bounds(coord, coord));
+        this(record.getCoordinateArray(), record.getUpperCoordinateArray());
+    }
+
+    private void setBounds(ArrayList<Bounds> bounds) {
+        lower = new double[bounds.size()];
+        upper = new double[bounds.size()];
+        for (int d = 0; d < bounds.size(); d++)
+        {
+            lower[d] = bounds.get(d).getLower();
+            upper[d] = bounds.get(d).getUpper();
         }
-        this.bounds = boundsList;
-        this.area = calculateArea();
-        this.margin = calculateMargin();
-        this.center = getCenter();
     }
 
+    // Returns a copy of the bounds as a list, the tree and the queries use getLower and getUpper instead
     ArrayList<Bounds> getBounds() {
+        ArrayList<Bounds> bounds = new ArrayList<>(lower.length);
+        for (int d = 0; d < lower.length; d++)
+            bounds.add(new Bounds(lower[d], upper[d]));
         return bounds;
     }
 
+    int getDimensions() {
+        return lower.length;
+    }
+
+    double getLower(int dimension) {
+        return lower[dimension];
+    }
+
+    double getUpper(int dimension) {
+        return upper[dimension];
+    }
+
     private double calculateMargin() {
         double sum = 0;
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
-            sum += abs(bounds.get(d).getUpper() - bounds.get(d).getLower());
+        for (int d = 0; d < lower.length; d++)
+            sum += abs(upper[d] - lower[d]);
         return sum;
     }
 
     private double calculateArea() {
         double productOfEdges = 1;
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
-            productOfEdges = productOfEdges * (bounds.get(d).getUpper() - bounds.get(d).getLower());
+        for (int d = 0; d < lower.length; d++)
+            productOfEdges = productOfEdges * (upper[d] - lower[d]);
         return abs(productOfEdges);
     }
 
     double getArea() {
-        if (area == null)
-            area = calculateArea();
-
         return area;
     }
 
     double getMargin() {
-        if (margin == null)
-            margin = calculateMargin();
-
         return margin;
     }
 
     public double minSum(){
         double sum = 0.0;
-        for (Bounds b: this.bounds){
-            sum += b.getLower();
+        for (double l : lower){
+            sum += l;
         }
         return sum;
     }
@@ -75,38 +112,50 @@ class BoundingBox implements Serializable {
     }
 
     double findMinDistanceFromPoint(ArrayList<Double> point){
+        double[] pointCoordinates = new double[lower.length];
+        for (int d = 0; d < lower.length; d++)
+            pointCoordinates[d] = point.get(d);
+        return findMinDistanceFromPoint(pointCoordinates);
+    }
+
+    double findMinDistanceFromPoint(double[] point){
         double minDistance = 0;
         double rd;
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
+        for (int d = 0; d < lower.length; d++)
         {
-            if(getBounds().get(d).getLower() > point.get(d))
-                rd = getBounds().get(d).getLower();
-            else if (getBounds().get(d).getUpper() < point.get(d))
-                rd = getBounds().get(d).getUpper();
+            if(lower[d] > point[d])
+                rd = lower[d];
+            else if (upper[d] < point[d])
+                rd = upper[d];
             else
-                rd = point.get(d);
+                rd = point[d];
 
-            minDistance += Math.pow(point.get(d) - rd,2);
+            minDistance += (point[d] - rd) * (point[d] - rd);
         }
         return sqrt(minDistance);
     }
 
     public ArrayList<Double> getCenter() {
+        ArrayList<Double> centerList = new ArrayList<>(lower.length);
+        for (int d = 0; d < lower.length; d++)
+            centerList.add(getCenter(d));
+        return centerList;
+    }
+
+    double getCenter(int dimension) {
         if (center == null)
         {
-            center = new ArrayList<>();
-
-            for (int d = 0; d < FilesManager.getDataDimensions(); d++)
-                center.add((bounds.get(d).getUpper()+bounds.get(d).getLower())/2);
+            center = new double[lower.length];
+            for (int d = 0; d < lower.length; d++)
+                center[d] = (upper[d] + lower[d]) / 2;
         }
-        return center;
+        return center[dimension];
     }
 
     static boolean checkOverlap(BoundingBox MBRA, BoundingBox MBRB) {
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
+        for (int d = 0; d < MBRA.lower.length; d++)
         {
-            double overlapD = Math.min(MBRA.getBounds().get(d).getUpper(), MBRB.getBounds().get(d).getUpper())
-                    - Math.max(MBRA.getBounds().get(d).getLower(), MBRB.getBounds().get(d).getLower());
+            double overlapD = Math.min(MBRA.upper[d], MBRB.upper[d]) - Math.max(MBRA.lower[d], MBRB.lower[d]);
 
             if (overlapD < 0)
                 return false;
@@ -116,10 +165,9 @@ class BoundingBox implements Serializable {
 
     static double calculateOverlapValue(BoundingBox MBRA, BoundingBox MBRB) {
         double overlapValue = 1;
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
+        for (int d = 0; d < MBRA.lower.length; d++)
         {
-            double overlapD = Math.min(MBRA.getBounds().get(d).getUpper(), MBRB.getBounds().get(d).getUpper())
-                    - Math.max(MBRA.getBounds().get(d).getLower(), MBRB.getBounds().get(d).getLower());
+            double overlapD = Math.min(MBRA.upper[d], MBRB.upper[d]) - Math.max(MBRA.lower[d], MBRB.lower[d]);
 
             if (overlapD <= 0)
                 return 0;
@@ -131,10 +179,49 @@ class BoundingBox implements Serializable {
 
     static double findDistanceBetweenBoundingBoxes(BoundingBox MBRA, BoundingBox MBRB) {
         double distance = 0;
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
+        for (int d = 0; d < MBRA.lower.length; d++)
         {
-            distance += Math.pow(MBRA.getCenter().get(d) - MBRB.getCenter().get(d),2);
+            double diff = MBRA.getCenter(d) - MBRB.getCenter(d);
+            distance += diff * diff;
         }
         return sqrt(distance);
     }
-}
\ No newline at end of file
+
+    // Returns the minimum bounding box enclosing both of the given bounding boxes
+    static BoundingBox findMinimumBoundingBox(BoundingBox MBRA, BoundingBox MBRB) {
+        int dimensions = MBRA.lower.length;
+        double[] lower = new double[dimensions];
+        double[] upper = new double[dimensions];
+        for (int d = 0; d < dimensions; d++)
+        {
+            lower[d] = Math.min(MBRA.lower[d], MBRB.lower[d]);
+            upper[d] = Math.max(MBRA.upper[d], MBRB.upper[d]);
+        }
+        return new BoundingBox(lower, upper);
+    }
+
+    // Returns the minimum bounding box enclosing the bounding boxes of all the given entries
+    static BoundingBox findMinimumBoundingBox(ArrayList<Entry> entries) {
+        BoundingBox first = entries.get(0).getBoundingBox();
+        double[] lower = first.lower.clone();
+        double[] upper = first.upper.clone();
+        for (int i = 1; i < entries.size(); i++)
+        {
+            BoundingBox current = entries.get(i).getBoundingBox();
+            for (int d = 0; d < lower.length; d++)
+            {
+                lower[d] = Math.min(lower[d], current.lower[d]);
+                upper[d] = Math.max(upper[d], current.upper[d]);
+            }
+        }
+        return new BoundingBox(lower, upper);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        setBounds((ArrayList<Bounds>) fields.get("bounds", null));
+        area = calculateArea();
+        margin = calculateMargin();
+    }
+}
@@ -1,7 +1,6 @@
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 
 // Represents the bounds of an interval in a single dimension
 class Bounds implements Serializable {
@@ -30,28 +29,12 @@ class Bounds implements Serializable {
 
     // Returns an ArrayList with bounds for each dimension, including the the minimum bounds needed to fit the given entries
     static ArrayList<Bounds> findMinimumBounds(ArrayList<Entry> entries) {
-        ArrayList<Bounds> minimumBounds = new ArrayList<>();
-        // For each dimension finds the minimum interval needed for the entries to fit
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
-        {
-            Entry lowerEntry = Collections.min(entries, new EntryComparator.EntryBoundComparator(entries,d,false));
-            Entry upperEntry = Collections.max(entries, new EntryComparator.EntryBoundComparator(entries,d,true));
-            minimumBounds.add(new Bounds(lowerEntry.getBoundingBox().getBounds().get(d).getLower(),upperEntry.getBoundingBox().getBounds().get(d).getUpper()));
-        }
-        return minimumBounds;
+        return BoundingBox.findMinimumBoundingBox(entries).getBounds();
     }
 
     // Returns an ArrayList with bounds for each dimension, including the the minimum bounds needed to merge the given bounding boxes
     static ArrayList<Bounds> findMinimumBounds(BoundingBox MBRA, BoundingBox MBRB) {
-        ArrayList<Bounds> minimumBounds = new ArrayList<>();
-        // For each dimension finds the minimum interval needed for the entries to fit
-        for (int d = 0; d < FilesManager.getDataDimensions(); d++)
-        {
-            double lower = Math.min(MBRA.getBounds().get(d).getLower(), MBRB.getBounds().get(d).getLower());
-            double upper = Math.max(MBRA.getBounds().get(d).getUpper(), MBRB.getBounds().get(d).getUpper());
-            minimumBounds.add(new Bounds(lower,upper));
-        }
-        return minimumBounds;
+        return BoundingBox.findMinimumBoundingBox(MBRA, MBRB).getBounds();
     }
 
     public static ArrayList<Bounds> findMinimumBoundsFromRecords(ArrayList<Record> records) {
@@ -63,9 +46,8 @@ class Bounds implements Serializable {
 
         for (Record r : records) {
             for (int i = 0; i < dimensions; i++) {
-                double val = r.getCoordinateFromDimension(i);
-                if (val < min[i]) min[i] = val;
-                if (val > max[i]) max[i] = val;
+                if (r.getCoordinateFromDimension(i) < min[i]) min[i] = r.getCoordinateFromDimension(i);
+                if (r.getUpperCoordinateFromDimension(i) > max[i]) max[i] = r.getUpperCoordinateFromDimension(i);
             }
         }
 
@@ -78,9 +60,8 @@ class Bounds implements Serializable {
 
     public static ArrayList<Bounds> findMinimumBoundsFromRecord(Record record) {
         ArrayList<Bounds> boundsList = new ArrayList<>();
-        for (int i = 0; i < record.getCoordinates().size(); i++) {
-            double coord = record.getCoordinateFromDimension(i);
-            boundsList.add(new Bounds(coord, coord));
+        for (int i = 0; i < record.getDimensions(); i++) {
+            boundsList.add(new Bounds(record.getCoordinateFromDimension(i), record.getUpperCoordinateFromDimension(i)));
         }
         return boundsList;
     }
@@ -0,0 +1,43 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Read-only view over a columnar data block. Like the DataBlockView the records are read in place from the
+// block buffer, but the coordinates of each dimension are stored together, so a whole column is read at once
+class ColumnarDataBlockView extends DataBlockView {
+    private final int nameEndsOffset;
+    private final int nameAreaOffset;
+
+    ColumnarDataBlockView(ByteBuffer block) throws IOException {
+        super(block, BlockFormat.readColumnarDataBlockHeader(block), BlockFormat.hasExtents(block), block.getInt(BlockFormat.HEADER_SIZE), block.getInt(BlockFormat.HEADER_SIZE + Integer.BYTES));
+        this.nameEndsOffset = BlockFormat.getColumnarNameEndOffset(getTotalRecords(), getCoordinateColumns());
+        this.nameAreaOffset = BlockFormat.getColumnarNameAreaOffset(getTotalRecords(), getCoordinateColumns());
+    }
+
+    @Override
+    long getRecordID(int slot) {
+        return getBlock().getLong(BlockFormat.DATA_HEADER_SIZE + slot * Long.BYTES);
+    }
+
+    @Override
+    double getCoordinate(int slot, int dimension) {
+        return getBlock().getDouble(BlockFormat.getColumnarCoordinateOffset(getTotalRecords(), dimension) + slot * Double.BYTES);
+    }
+
+    @Override
+    double[] getCoordinateColumn(int dimension, double[] buffer) {
+        getBlock().slice(BlockFormat.getColumnarCoordinateOffset(getTotalRecords(), dimension), getTotalRecords() * Double.BYTES)
+                .asDoubleBuffer().get(buffer, 0, getTotalRecords());
+        return buffer;
+    }
+
+    @Override
+    String getName(int slot) {
+        ByteBuffer block = getBlock();
+        int nameStart = slot == 0 ? 0 : block.getInt(nameEndsOffset + (slot - 1) * Integer.BYTES);
+        int nameEnd = block.getInt(nameEndsOffset + slot * Integer.BYTES);
+        byte[] nameBytes = new byte[nameEnd - nameStart];
+        block.get(nameAreaOffset + nameStart, nameBytes);
+        return new String(nameBytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Loads the records of the CSV file into a new datafile using several threads. The file is split into chunks of
+// CHUNK_SIZE bytes ending at line breaks, the records of every chunk are parsed and packed into encoded blocks by a
+// worker, and the blocks of the chunks are written in the order of the chunks. The chunks depend only on the file,
+// so the datafile (and the block IDs of the records) is the same whatever the number of threads.
+// A line break inside a quoted name can be taken for the end of a chunk. Then the previous chunk, which reads its
+// last line to its end, ends after the start of the chunk, and the chunk is read again from where it really starts
+class CsvDataFileLoader {
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+    // The blocks of a chunk and the position of the file after its last line
+    private static class Chunk {
+        private final ArrayList<byte[]> blocks = new ArrayList<>();
+        private long endPosition;
+    }
+
+    static void load(String pathToCsv, DataFileBulkWriter dataFileWriter, int dimensions, int blockSize, byte layout, int threads) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToCsv), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long firstLineStart = findLineStart(channel, 1);
+            ArrayList<Long> chunkStarts = new ArrayList<>();
+            for (long chunkStart = firstLineStart; chunkStart < fileSize; chunkStart = findLineStart(channel, chunkStart + CHUNK_SIZE))
+                chunkStarts.add(chunkStart);
+            chunkStarts.add(fileSize);
+
+            // Up to two chunks per thread are read ahead of the chunk being written
+            ArrayDeque<Future<Chunk>> pendingChunks = new ArrayDeque<>();
+            int nextChunk = 0;
+            long expectedStart = firstLineStart; // Where the previous chunk ended
+            for (int i = 0; i < chunkStarts.size() - 1; i++) {
+                while (nextChunk < chunkStarts.size() - 1 && pendingChunks.size() < 2 * threads) {
+                    long start = chunkStarts.get(nextChunk);
+                    long end = chunkStarts.get(nextChunk + 1);
+                    pendingChunks.add(workers.submit(() -> readChunk(channel, start, end, dimensions, blockSize, layout)));
+                    nextChunk++;
+                }
+                Chunk chunk;
+                try {
+                    chunk = pendingChunks.poll().get();
+                    if (chunkStarts.get(i) != expectedStart)
+                        chunk = readChunk(channel, expectedStart, Math.max(expectedStart, chunkStarts.get(i + 1)), dimensions, blockSize, layout);
+                } catch (ExecutionException e) {
+                    // A chunk starting inside a line can fail to parse, it is read again from the end of the previous one
+                    if (chunkStarts.get(i) == expectedStart) {
+                        if (e.getCause() instanceof RuntimeException)
+                            throw (RuntimeException) e.getCause();
+                        throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                    chunk = readChunk(channel, expectedStart, Math.max(expectedStart, chunkStarts.get(i + 1)), dimensions, blockSize, layout);
+                }
+                for (byte[] block : chunk.blocks)
+                    dataFileWriter.writeEncodedBlock(block);
+                expectedStart = chunk.endPosition;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading the CSV file was interrupted", e);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static Chunk readChunk(FileChannel channel, long start, long end, int dimensions, int blockSize, byte layout) throws IOException {
+        Chunk chunk = new Chunk();
+        DataBlockPacker packer = new DataBlockPacker(dimensions, blockSize, layout, chunk.blocks::add);
+        try (CsvRecordReader csvReader = new CsvRecordReader(channel, start, end, dimensions)) {
+            Record record;
+            while ((record = csvReader.readRecord()) != null)
+                packer.addRecord(record);
+            packer.finish();
+            chunk.endPosition = csvReader.getPosition();
+        }
+        return chunk;
+    }
+
+    // Returns the position after the first line break at or after position - 1, so a position already at the start
+    // of a line is returned as it is, or the size of the file if there is no line break
+    private static long findLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long offset = position - 1;
+        while (offset < channel.size()) {
+            buffer.clear();
+            int bytesRead = channel.read(buffer, offset);
+            if (bytesRead <= 0)
+                break;
+            for (int i = 0; i < bytesRead; i++) {
+                if (buffer.get(i) == '\n')
+                    return offset + i + 1;
+            }
+            offset += bytesRead;
+        }
+        return channel.size();
+    }
+}
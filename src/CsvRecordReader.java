@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Reads the records of the CSV file (id, name, coordinates) straight from the bytes of the file, read in large
+// chunks, instead of reading every line as a String and splitting it. The fields of a line are found in one pass
+// over its bytes and the IDs and coordinates are parsed from the bytes, so the only String created per record is
+// its name. A field can be quoted ("a, b" or "say ""hi"""), so names may contain the delimiter, quotes and line
+// breaks. The reader reads the lines that start in a range of bytes of the file, beginning at the start of a line;
+// the last of them is read to its end even if it ends after the range
+class CsvRecordReader implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final byte DELIMITER = ',';
+    private static final byte QUOTE = '"';
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // States of the scan of a line
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3; // A quote inside a quoted field, closing it unless another follows
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final long end; // Position of the file where the range ends
+    private final long fileSize;
+    private final int dimensions;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position; // Start of the next line in the buffer
+    private int limit; // End of the bytes read into the buffer
+    private long filePosition; // Position of the file after the bytes read into the buffer
+    private final int[] fieldStarts;
+    private final int[] fieldEnds;
+    private int totalFields;
+    private int lineEnd;
+
+    // Reads the lines starting in [start, end) of the file. The channel is not closed with the reader
+    CsvRecordReader(FileChannel channel, long start, long end, int dimensions) throws IOException {
+        this(channel, false, start, end, dimensions);
+    }
+
+    private CsvRecordReader(FileChannel channel, boolean ownsChannel, long start, long end, int dimensions) throws IOException {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.end = end;
+        this.fileSize = channel.size();
+        this.dimensions = dimensions;
+        this.filePosition = start;
+        this.fieldStarts = new int[dimensions + 2];
+        this.fieldEnds = new int[dimensions + 2];
+    }
+
+    // Reads all the lines of the file, after its header line
+    static CsvRecordReader open(String pathToCsv, int dimensions) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(pathToCsv), StandardOpenOption.READ);
+        CsvRecordReader reader = new CsvRecordReader(channel, true, 0, channel.size(), dimensions);
+        reader.skipLine();
+        return reader;
+    }
+
+    // Position of the file where the next line starts, after the range once all its lines are read
+    long getPosition() {
+        return filePosition - (limit - position);
+    }
+
+    // Moves to the next line without reading it, returns false at the end of the range
+    boolean skipLine() throws IOException {
+        if (!findLine())
+            return false;
+        position = lineEnd;
+        return true;
+    }
+
+    // Returns the record of the next line, or null at the end of the range. Empty lines are skipped
+    Record readRecord() throws IOException {
+        while (findLine()) {
+            int lineStart = position;
+            position = lineEnd;
+            if (totalFields == 1 && fieldEnds[0] == fieldStarts[0])
+                continue;
+            if (totalFields != dimensions + 2)
+                throw new IllegalArgumentException("Record input string is not correct: " + new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8).trim());
+            long recordId = parseLong(fieldStarts[0], fieldEnds[0]);
+            String name = decodeField(fieldStarts[1], fieldEnds[1]);
+            double[] coordinates = new double[dimensions];
+            for (int d = 0; d < dimensions; d++)
+                coordinates[d] = parseDouble(fieldStarts[d + 2], fieldEnds[d + 2]);
+            return new Record(recordId, name, coordinates);
+        }
+        return null;
+    }
+
+    // Finds the fields and the end of the line starting at the current position, reading more of the file when
+    // the line does not end in the buffer. Returns false if there are no more lines
+    private boolean findLine() throws IOException {
+        if (getPosition() >= end)
+            return false;
+        while (true) {
+            if (position == limit && !fill())
+                return false;
+            if (scanLine())
+                return true;
+            if (!fill()) {
+                // The last line of the file does not end with a line break
+                lineEnd = limit;
+                return true;
+            }
+        }
+    }
+
+    // Scans the line at the current position, recording its fields. Returns false if the line does not end in the
+    // buffer. The line break after the line is included in it, so lineEnd is where the next line starts
+    private boolean scanLine() {
+        int state = FIELD_START;
+        totalFields = 0;
+        int fieldStart = position;
+        for (int i = position; i < limit; i++) {
+            byte b = buffer[i];
+            if (state == QUOTED) {
+                if (b == QUOTE)
+                    state = QUOTE_IN_QUOTED;
+                continue;
+            }
+            if (state == QUOTE_IN_QUOTED && b == QUOTE) {
+                state = QUOTED; // Two quotes inside a quoted field stand for one quote
+                continue;
+            }
+            if (b == DELIMITER) {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+                state = FIELD_START;
+            } else if (b == '\n' || b == '\r') {
+                if (b == '\r' && i + 1 == limit && filePosition < fileSize)
+                    return false; // A \n may follow in the part of the file not read yet
+                addField(fieldStart, i);
+                lineEnd = b == '\r' && i + 1 < limit && buffer[i + 1] == '\n' ? i + 2 : i + 1;
+                return true;
+            } else {
+                state = state == FIELD_START && b == QUOTE ? QUOTED : UNQUOTED;
+            }
+        }
+        if (filePosition >= fileSize)
+            addField(fieldStart, limit);
+        return false;
+    }
+
+    private void addField(int start, int fieldEnd) {
+        if (totalFields < fieldStarts.length) {
+            fieldStarts[totalFields] = start;
+            fieldEnds[totalFields] = fieldEnd;
+        }
+        totalFields++;
+    }
+
+    // Keeps the current line at the start of the buffer and reads more of the file after it. The buffer grows if
+    // the line fills it. Returns false at the end of the file
+    private boolean fill() throws IOException {
+        if (filePosition >= fileSize)
+            return false;
+        int remaining = limit - position;
+        if (remaining == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        position = 0;
+        limit = remaining;
+        ByteBuffer target = ByteBuffer.wrap(buffer, limit, (int) Math.min(buffer.length - limit, fileSize - filePosition));
+        while (target.hasRemaining()) {
+            int bytesRead = channel.read(target, filePosition);
+            if (bytesRead < 0)
+                throw new IOException("The CSV file ended while it was being read");
+            filePosition += bytesRead;
+        }
+        limit = target.position();
+        return true;
+    }
+
+    // Decodes a field as text, removing the quotes of a quoted field
+    private String decodeField(int start, int fieldEnd) {
+        if (start == fieldEnd || buffer[start] != QUOTE)
+            return new String(buffer, start, fieldEnd - start, StandardCharsets.UTF_8);
+        byte[] text = new byte[fieldEnd - start];
+        int length = 0;
+        boolean quoted = true;
+        for (int i = start + 1; i < fieldEnd; i++) {
+            if (quoted && buffer[i] == QUOTE) {
+                if (i + 1 < fieldEnd && buffer[i + 1] == QUOTE)
+                    text[length++] = buffer[++i];
+                else
+                    quoted = false;
+            } else {
+                text[length++] = buffer[i];
+            }
+        }
+        return new String(text, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Parses an integer of up to 18 digits from the bytes, other fields are parsed by Long.parseLong
+    private long parseLong(int start, int fieldEnd) {
+        int i = start;
+        boolean negative = i < fieldEnd && buffer[i] == '-';
+        if (i < fieldEnd && (buffer[i] == '-' || buffer[i] == '+'))
+            i++;
+        if (i == fieldEnd || fieldEnd - i > 18)
+            return Long.parseLong(decodeField(start, fieldEnd));
+        long value = 0;
+        for (; i < fieldEnd; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9)
+                return Long.parseLong(decodeField(start, fieldEnd));
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // Parses a decimal number from the bytes. When its digits fit in the 53 bits of a double and its exponent is
+    // at most 22, the number is one exact multiplication or division of two doubles and so it is rounded exactly
+    // like Double.parseDouble; any other number is parsed by Double.parseDouble
+    private double parseDouble(int start, int fieldEnd) {
+        int i = start;
+        boolean negative = i < fieldEnd && buffer[i] == '-';
+        if (i < fieldEnd && (buffer[i] == '-' || buffer[i] == '+'))
+            i++;
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean pointSeen = false;
+        for (; i < fieldEnd; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa > (MAX_EXACT_MANTISSA - 9) / 10)
+                    return Double.parseDouble(decodeField(start, fieldEnd));
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (pointSeen)
+                    exponent--;
+            } else if (b == '.' && !pointSeen) {
+                pointSeen = true;
+            } else {
+                break;
+            }
+        }
+        if (i < fieldEnd && (buffer[i] == 'e' || buffer[i] == 'E') && digits > 0) {
+            int exponentStart = ++i;
+            boolean negativeExponent = i < fieldEnd && buffer[i] == '-';
+            if (i < fieldEnd && (buffer[i] == '-' || buffer[i] == '+'))
+                i++;
+            int writtenExponent = 0;
+            for (; i < fieldEnd && buffer[i] >= '0' && buffer[i] <= '9' && writtenExponent < 1000; i++)
+                writtenExponent = writtenExponent * 10 + (buffer[i] - '0');
+            if (i == exponentStart || !(buffer[i - 1] >= '0' && buffer[i - 1] <= '9'))
+                return Double.parseDouble(decodeField(start, fieldEnd));
+            exponent += negativeExponent ? -writtenExponent : writtenExponent;
+        }
+        if (i != fieldEnd || digits == 0 || exponent < -22 || exponent > 22)
+            return Double.parseDouble(decodeField(start, fieldEnd));
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel)
+            channel.close();
+    }
+}
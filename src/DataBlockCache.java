@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Size-bounded cache of datafile blocks shared by all the queries. Each cached block is weighted by the bytes it
+// uses, and the least recently used blocks are evicted when the total weight exceeds the maximum size.
+// With an OffHeapArena the blocks copied from the file to the heap are cached in slots of the arena instead; the
+// blocks of memory-mapped files are already outside of the heap, and decompressed blocks stay on the heap
+class DataBlockCache {
+    private final long maxBytes; // Maximum total size of the cached blocks (0 disables the cache)
+    private final OffHeapArena arena; // Null to cache the blocks on the heap
+    private long cachedBytes;
+    private final LinkedHashMap<Long, DataBlockView> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Long, ByteBuffer> arenaSlots = new HashMap<>(); // Slot of every block cached in the arena
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    DataBlockCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    DataBlockCache(long maxBytes, OffHeapArena arena) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("The size of the data block cache cannot be negative");
+        this.maxBytes = maxBytes;
+        this.arena = arena;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // Returns the cached block or null if it is not in the cache
+    DataBlockView get(long blockId) {
+        DataBlockView block = blocks.get(blockId);
+        if (block == null)
+            misses++;
+        else
+            hits++;
+        return block;
+    }
+
+    // Caches the block and returns the view the caller should use, which reads the block from the arena when the
+    // block was copied there
+    DataBlockView put(long blockId, DataBlockView block) throws IOException {
+        if (block.getSizeInMemory() > maxBytes)
+            return block;
+        invalidate(blockId);
+        block = moveToArena(blockId, block);
+        blocks.put(blockId, block);
+        cachedBytes += block.getSizeInMemory();
+
+        Iterator<Map.Entry<Long, DataBlockView>> eldest = blocks.entrySet().iterator();
+        while (cachedBytes > maxBytes) {
+            Map.Entry<Long, DataBlockView> evicted = eldest.next();
+            eldest.remove();
+            release(evicted.getKey(), evicted.getValue());
+            evictions++;
+        }
+        return block;
+    }
+
+    // Copies a block read to the heap to a slot of the arena. When the arena is full the least recently used block
+    // taking a slot of the same size is evicted, and if there is none the block stays on the heap
+    private DataBlockView moveToArena(long blockId, DataBlockView block) throws IOException {
+        ByteBuffer heapBlock = block.getBlock();
+        if (arena == null || heapBlock == null || heapBlock.isDirect())
+            return block;
+        ByteBuffer slot = arena.allocate(block.getUsedBytes());
+        if (slot == null && evictSlot(OffHeapArena.getSlotSize(block.getUsedBytes())))
+            slot = arena.allocate(block.getUsedBytes());
+        if (slot == null)
+            return block;
+        slot.put(0, heapBlock, 0, block.getUsedBytes());
+        arenaSlots.put(blockId, slot);
+        return BlockFormat.decodeDataBlockView(slot);
+    }
+
+    private boolean evictSlot(int slotSize) {
+        Iterator<Map.Entry<Long, DataBlockView>> eldest = blocks.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Map.Entry<Long, DataBlockView> block = eldest.next();
+            ByteBuffer slot = arenaSlots.get(block.getKey());
+            if (slot != null && slot.capacity() == slotSize) {
+                eldest.remove();
+                release(block.getKey(), block.getValue());
+                evictions++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Frees the slot of a block leaving the cache. The block moves to the heap first, since a query may still use it
+    private void release(long blockId, DataBlockView block) {
+        cachedBytes -= block.getSizeInMemory();
+        ByteBuffer slot = arenaSlots.remove(blockId);
+        if (slot != null) {
+            block.moveToHeap();
+            arena.free(slot);
+        }
+    }
+
+    // Removes the block from the cache, used when the block is modified
+    void invalidate(long blockId) {
+        DataBlockView block = blocks.remove(blockId);
+        if (block != null)
+            release(blockId, block);
+    }
+
+    void clear() {
+        for (Map.Entry<Long, DataBlockView> block : blocks.entrySet())
+            release(block.getKey(), block.getValue());
+        blocks.clear();
+        cachedBytes = 0;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "Data block cache: [Blocks: " + blocks.size() + ", Bytes: " + cachedBytes + "/" + maxBytes +
+                (arena == null ? "" : ", Off-heap bytes: " + arena.getUsedBytes() + "/" + arena.getMaxBytes()) +
+                ", Hits: " + hits + ", Misses: " + misses + ", Evictions: " + evictions + "]";
+    }
+}
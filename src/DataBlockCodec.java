@@ -0,0 +1,151 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compression of the records of a data block (XOR_DEFLATE_COMPRESSION). The records are sorted by their first
+// coordinate and written column by column before being compressed with Deflate:
+//  - Record IDs:  difference from the previous ID, zigzag encoded as a variable-length integer
+//  - Coordinates: per coordinate column (the dimensions, followed by the upper coordinates if the block has
+//                 extents), the bits of every coordinate XORed with the previous coordinate of the dimension.
+//                 Nearby points share their sign, exponent and leading mantissa bits, so the XORed values start
+//                 with zero bytes, and they are stored byte by byte (the first bytes of all of them, then the
+//                 second bytes...) so that Deflate finds the runs of zeros
+//  - Names:       the length of every name as a variable-length integer, followed by the UTF-8 bytes of the names
+class DataBlockCodec {
+
+    // Compresses the records into output starting at the given offset: the length of the columns before their
+    // compression (int) followed by the compressed columns. Returns the bytes written, or -1 if the compressed
+    // records do not fit in maxLength bytes
+    static int compress(ArrayList<Record> records, int dimensions, boolean extents, byte[] output, int offset, int maxLength) {
+        ArrayList<Record> sortedRecords = new ArrayList<>(records);
+        sortedRecords.sort(Comparator.comparingDouble((Record record) -> record.getCoordinateFromDimension(0)).thenComparingLong(Record::getRecordID));
+        byte[] columns = encodeColumns(sortedRecords, dimensions, extents);
+        if (maxLength < Integer.BYTES)
+            return -1;
+        ByteBuffer.wrap(output).putInt(offset, columns.length);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(columns);
+            deflater.finish();
+            int compressedLength = deflater.deflate(output, offset + Integer.BYTES, maxLength - Integer.BYTES);
+            return deflater.finished() ? Integer.BYTES + compressedLength : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] encodeColumns(ArrayList<Record> records, int dimensions, boolean extents) {
+        int coordinateColumns = BlockFormat.getCoordinateColumns(dimensions, extents);
+        ByteArrayOutputStream columns = new ByteArrayOutputStream(records.size() * BlockFormat.getRecordSlotSize(coordinateColumns));
+        long previousRecordId = 0;
+        for (Record record : records) {
+            writeVarLong(columns, zigzag(record.getRecordID() - previousRecordId));
+            previousRecordId = record.getRecordID();
+        }
+        long[] xoredCoordinates = new long[records.size()];
+        for (int column = 0; column < coordinateColumns; column++) {
+            long previousBits = 0;
+            for (int i = 0; i < records.size(); i++) {
+                long bits = Double.doubleToRawLongBits(BlockFormat.getCoordinateColumnValue(records.get(i), dimensions, column));
+                xoredCoordinates[i] = bits ^ previousBits;
+                previousBits = bits;
+            }
+            for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                for (long xoredCoordinate : xoredCoordinates)
+                    columns.write((int) (xoredCoordinate >>> shift));
+            }
+        }
+        byte[][] names = new byte[records.size()][];
+        for (int i = 0; i < records.size(); i++) {
+            String name = records.get(i).getName();
+            names[i] = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(columns, names[i].length);
+        }
+        for (byte[] name : names)
+            columns.writeBytes(name);
+        return columns.toByteArray();
+    }
+
+    // Decompresses the records written by compress, starting at the position of the buffer, into a view over
+    // the decoded columns
+    static DecodedDataBlockView decompress(ByteBuffer compressed, int dimensions, boolean extents, int totalRecords, int usedBytes) throws IOException {
+        int uncompressedLength = compressed.getInt();
+        byte[] columnBytes = new byte[uncompressedLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int inflated = 0;
+            while (inflated < uncompressedLength && !inflater.finished()) {
+                int bytes = inflater.inflate(columnBytes, inflated, uncompressedLength - inflated);
+                if (bytes == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("The compressed data block is truncated");
+                inflated += bytes;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("The compressed data block is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer columns = ByteBuffer.wrap(columnBytes);
+        long[] recordIds = new long[totalRecords];
+        long recordId = 0;
+        for (int i = 0; i < totalRecords; i++) {
+            recordId += unzigzag(readVarLong(columns));
+            recordIds[i] = recordId;
+        }
+        double[][] coordinates = new double[BlockFormat.getCoordinateColumns(dimensions, extents)][totalRecords];
+        long[] xoredCoordinates = new long[totalRecords];
+        for (int d = 0; d < coordinates.length; d++) {
+            Arrays.fill(xoredCoordinates, 0);
+            for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                for (int i = 0; i < totalRecords; i++)
+                    xoredCoordinates[i] |= (columns.get() & 0xFFL) << shift;
+            }
+            long bits = 0;
+            for (int i = 0; i < totalRecords; i++) {
+                bits ^= xoredCoordinates[i];
+                coordinates[d][i] = Double.longBitsToDouble(bits);
+            }
+        }
+        int[] nameOffsets = new int[totalRecords + 1];
+        for (int i = 0; i < totalRecords; i++)
+            nameOffsets[i + 1] = nameOffsets[i] + (int) readVarLong(columns);
+        byte[] names = new byte[nameOffsets[totalRecords]];
+        columns.get(names);
+        return new DecodedDataBlockView(dimensions, extents, usedBytes, recordIds, coordinates, names, nameOffsets);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer input) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = input.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
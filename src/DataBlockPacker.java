@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Packs records added one by one into encoded data blocks by their encoded size, so every block holds as many
+// records as fit in it whatever the length of their names, or their compressed size when the blocks are
+// compressed. The finished blocks are handed to a BlockWriter in the order of the records. A record with an extent
+// makes every record of its block store upper coordinates, which is included in the size of the block. The blocks
+// can be filled only up to a number of bytes, leaving the rest of every block free for records inserted later
+class DataBlockPacker {
+
+    // Receives the encoded blocks of the packer
+    interface BlockWriter {
+        void writeBlock(byte[] block) throws IOException;
+    }
+
+    private final int dimensions;
+    private final int blockSize;
+    private final int capacity; // Bytes of every block the records are packed into
+    private final byte layout;
+    private final BlockWriter blockWriter;
+    private ArrayList<Record> blockRecords = new ArrayList<>(); // Records added to the block being packed
+    private int blockUsedBytes = BlockFormat.DATA_HEADER_SIZE; // Uncompressed size of the block being packed
+    private boolean blockExtents; // True if a record of the block being packed has an extent
+    private int fittingRecords; // Records of the block being packed known to fit in it when compressed
+    private long nextCompressionCheck; // Uncompressed size at which the block being packed is compressed again
+
+    DataBlockPacker(int dimensions, int blockSize, byte layout, BlockWriter blockWriter) {
+        this(dimensions, blockSize, blockSize, layout, blockWriter);
+    }
+
+    DataBlockPacker(int dimensions, int blockSize, int capacity, byte layout, BlockWriter blockWriter) {
+        if (capacity > blockSize || capacity <= BlockFormat.DATA_HEADER_SIZE)
+            throw new IllegalArgumentException("The capacity of the blocks must be between their header size and their size");
+        this.dimensions = dimensions;
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.layout = layout;
+        this.blockWriter = blockWriter;
+        this.nextCompressionCheck = capacity;
+    }
+
+    // Adds the record to the block being packed, starting a new block if the record does not fit in it
+    void addRecord(Record record) throws IOException {
+        int recordSize = BlockFormat.getRecordSize(record, dimensions);
+        if (BlockFormat.DATA_HEADER_SIZE + recordSize > capacity)
+            throw new IllegalArgumentException("Record " + record.getRecordID() + " does not fit in a data block");
+        if (layout == BlockFormat.COMPRESSED_DATA_LAYOUT) {
+            addRecordToCompressedBlock(record, recordSize);
+            return;
+        }
+        if (getUsedBytesWith(record) > capacity)
+            writePackedBlock(blockRecords.size());
+        addToBlock(record);
+    }
+
+    // Uncompressed size of the block being packed if the record is added to it
+    private int getUsedBytesWith(Record record) {
+        if (blockExtents || !record.hasExtent())
+            return blockUsedBytes + BlockFormat.getRecordSize(record, dimensions, blockExtents);
+        return blockUsedBytes + blockRecords.size() * dimensions * Double.BYTES + BlockFormat.getRecordSize(record, dimensions, true);
+    }
+
+    private void addToBlock(Record record) {
+        blockUsedBytes = getUsedBytesWith(record);
+        blockRecords.add(record);
+        blockExtents |= record.hasExtent();
+    }
+
+    // The compressed size of the records is only known by compressing them, so the block is compressed when its
+    // uncompressed size reaches the size expected to fill half of the free space left at the last compression
+    private void addRecordToCompressedBlock(Record record, int recordSize) throws IOException {
+        addToBlock(record);
+        if (blockUsedBytes < nextCompressionCheck)
+            return;
+        byte[] block = BlockFormat.encodeDataBlock(blockRecords, dimensions, capacity, layout);
+        if (block != null) {
+            fittingRecords = blockRecords.size();
+            int compressedBytes = BlockFormat.getDataBlockUsedBytes(block);
+            nextCompressionCheck = blockUsedBytes + Math.max(recordSize, (long) (capacity - compressedBytes) * blockUsedBytes / compressedBytes / 2);
+            return;
+        }
+        writeFittingRecords(false);
+        nextCompressionCheck = blockUsedBytes + recordSize;
+    }
+
+    // Writes blocks with the most records of the block being packed that fit in one compressed block, found by
+    // binary search, until the rest of the records fit in one block (or until all of them are written)
+    private void writeFittingRecords(boolean writeAll) throws IOException {
+        while (!blockRecords.isEmpty()) {
+            int low = fittingRecords; // A single record always fits, so at least one record is written
+            int high = blockRecords.size();
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (BlockFormat.encodeDataBlock(new ArrayList<>(blockRecords.subList(0, middle)), dimensions, capacity, layout) != null)
+                    low = middle;
+                else
+                    high = middle - 1;
+            }
+            if (low == blockRecords.size() && !writeAll) {
+                fittingRecords = low;
+                return;
+            }
+            writePackedBlock(low);
+            fittingRecords = 0;
+        }
+    }
+
+    // Writes the first records of the block being packed, the rest of them stay for the next block
+    private void writePackedBlock(int totalRecords) throws IOException {
+        if (totalRecords == 0)
+            return;
+        byte[] block = BlockFormat.encodeDataBlock(new ArrayList<>(blockRecords.subList(0, totalRecords)), dimensions, capacity, layout);
+        if (block == null)
+            throw new IllegalStateException("Block too large to fit in one data block");
+        blockWriter.writeBlock(block.length == blockSize ? block : Arrays.copyOf(block, blockSize));
+        blockRecords = new ArrayList<>(blockRecords.subList(totalRecords, blockRecords.size()));
+        blockUsedBytes = BlockFormat.getDataBlockSize(blockRecords, dimensions);
+        blockExtents = BlockFormat.hasExtents(blockRecords);
+    }
+
+    // Writes the records left in the block being packed, so the next record added starts a new block
+    void finish() throws IOException {
+        if (layout != BlockFormat.COMPRESSED_DATA_LAYOUT)
+            writePackedBlock(blockRecords.size());
+        else
+            writeFittingRecords(true);
+    }
+}
@@ -0,0 +1,121 @@
+// Scan operators evaluating the predicates of the queries on whole coordinate columns of the data blocks, one
+// dimension at a time, so the queries create Record objects only for the records they keep. The operators run
+// over primitive arrays instead of the fields of Record objects. The arrays used by the operators are kept by the
+// scanner and grow with the largest block scanned. Records with extents are boxes: a range selects the ones it
+// overlaps and the distance from a point is the distance from the nearest point of the box. When the Vector API
+// module is loaded (the program is run with --add-modules jdk.incubator.vector) the operators run the kernels of
+// VectorScanKernels, otherwise the scalar loops below
+class DataBlockScanner {
+    private static final boolean VECTOR_API_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    private static boolean useVectorKernels = VECTOR_API_AVAILABLE;
+
+    private int[] selection = new int[0]; // Slots selected by the last selectInRange
+    private double[] distances = new double[0]; // Distances computed by the last computeSquaredDistances or computeDistances
+    private double[] column = new double[0]; // Buffer for the columns copied from the blocks
+    private double[] upperColumn = new double[0]; // Buffer for the upper coordinate columns of blocks with extents
+
+    static boolean isVectorApiAvailable() {
+        return VECTOR_API_AVAILABLE;
+    }
+
+    // Sets whether the operators run the kernels on the Vector API or the scalar loops, which give the same results
+    static void setVectorKernels(boolean enabled) {
+        if (enabled && !VECTOR_API_AVAILABLE)
+            throw new IllegalStateException("The Vector API is not available, the program has to be run with --add-modules jdk.incubator.vector");
+        useVectorKernels = enabled;
+    }
+
+    private void ensureCapacity(int totalRecords) {
+        if (selection.length >= totalRecords)
+            return;
+        selection = new int[totalRecords];
+        distances = new double[totalRecords];
+        column = new double[totalRecords];
+        upperColumn = new double[totalRecords];
+    }
+
+    // Selects the slots of the records overlapping the bounds [lower, upper] of every dimension (inside them if
+    // they are points) and returns how many they are. The selected slots are the first ones of getSelection(), in
+    // increasing order
+    int selectInRange(DataBlockView block, double[] lower, double[] upper) {
+        int totalRecords = block.getTotalRecords();
+        ensureCapacity(totalRecords);
+        int selected = 0;
+        for (int d = 0; d < lower.length && (d == 0 || selected > 0); d++) {
+            double[] values = block.getCoordinateColumn(d, column);
+            double[] upperValues = block.hasExtents() ? block.getUpperCoordinateColumn(d, upperColumn) : values;
+            if (useVectorKernels) {
+                selected = d == 0 ? VectorScanKernels.select(values, upperValues, lower[0], upper[0], totalRecords, selection)
+                        : VectorScanKernels.refineSelection(values, upperValues, lower[d], upper[d], selection, selected);
+                continue;
+            }
+            if (d == 0) {
+                for (int slot = 0; slot < totalRecords; slot++) {
+                    selection[selected] = slot;
+                    selected += upperValues[slot] >= lower[0] && values[slot] <= upper[0] ? 1 : 0;
+                }
+                continue;
+            }
+            int kept = 0;
+            for (int i = 0; i < selected; i++) {
+                int slot = selection[i];
+                selection[kept] = slot;
+                kept += upperValues[slot] >= lower[d] && values[slot] <= upper[d] ? 1 : 0;
+            }
+            selected = kept;
+        }
+        return selected;
+    }
+
+    int[] getSelection() {
+        return selection;
+    }
+
+    // Computes the squared distance of every record of the block from the point. The distances are the first
+    // ones of the returned array, in the order of the slots
+    double[] computeSquaredDistances(DataBlockView block, double[] point) {
+        int totalRecords = block.getTotalRecords();
+        ensureCapacity(totalRecords);
+        for (int slot = 0; slot < totalRecords; slot++)
+            distances[slot] = 0;
+        for (int d = 0; d < point.length; d++) {
+            double[] values = block.getCoordinateColumn(d, column);
+            double coordinate = point[d];
+            if (useVectorKernels) {
+                if (block.hasExtents())
+                    VectorScanKernels.addSquaredDistances(values, block.getUpperCoordinateColumn(d, upperColumn), coordinate, totalRecords, distances);
+                else
+                    VectorScanKernels.addSquaredDistances(values, coordinate, totalRecords, distances);
+                continue;
+            }
+            if (!block.hasExtents()) {
+                for (int slot = 0; slot < totalRecords; slot++) {
+                    double difference = values[slot] - coordinate;
+                    distances[slot] += difference * difference;
+                }
+                continue;
+            }
+            double[] upperValues = block.getUpperCoordinateColumn(d, upperColumn);
+            for (int slot = 0; slot < totalRecords; slot++) {
+                double difference = Math.max(0, Math.max(values[slot] - coordinate, coordinate - upperValues[slot]));
+                distances[slot] += difference * difference;
+            }
+        }
+        return distances;
+    }
+
+    // Computes the Euclidean distance of every record of the block from the point, in the same way as
+    // computeSquaredDistances
+    double[] computeDistances(DataBlockView block, double[] point) {
+        computeSquaredDistances(block, point);
+        for (int slot = 0; slot < block.getTotalRecords(); slot++)
+            distances[slot] = Math.sqrt(distances[slot]);
+        return distances;
+    }
+
+    // Copies the coordinates of the records of the block in the dimension to target, starting at the given offset
+    void copyCoordinateColumn(DataBlockView block, int dimension, double[] target, int offset) {
+        ensureCapacity(block.getTotalRecords());
+        System.arraycopy(block.getCoordinateColumn(dimension, column), 0, target, offset, block.getTotalRecords());
+    }
+}
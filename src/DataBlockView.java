@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+// Read-only view over a data block encoded with BlockFormat. The records are read in place from the block buffer
+// (which can be a slice of the memory-mapped datafile), so queries can check the coordinates of every record
+// and create Record objects only for the ones they keep. The views of the other layouts (ColumnarDataBlockView,
+// DecodedDataBlockView) read the same fields from their own columns. The coordinates of a dimension are the lower
+// coordinates of the records with extents; their upper coordinates are the coordinate columns after the dimensions
+class DataBlockView {
+    private ByteBuffer block;
+    private final int dimensions;
+    private final boolean extents;
+    private final int totalRecords;
+    private final int usedBytes;
+    private final int slotSize;
+
+    DataBlockView(ByteBuffer block) throws IOException {
+        this.block = block;
+        this.dimensions = BlockFormat.readDataBlockHeader(block);
+        this.extents = BlockFormat.hasExtents(block);
+        this.totalRecords = block.getInt(BlockFormat.HEADER_SIZE);
+        this.usedBytes = block.getInt(BlockFormat.HEADER_SIZE + Integer.BYTES);
+        this.slotSize = BlockFormat.getRecordSlotSize(getCoordinateColumns());
+    }
+
+    // For the views of the other layouts, which read their records from the given block (null if they keep the
+    // records in arrays of their own) in their own format
+    DataBlockView(ByteBuffer block, int dimensions, boolean extents, int totalRecords, int usedBytes) {
+        this.block = block;
+        this.dimensions = dimensions;
+        this.extents = extents;
+        this.totalRecords = totalRecords;
+        this.usedBytes = usedBytes;
+        this.slotSize = BlockFormat.getRecordSlotSize(getCoordinateColumns());
+    }
+
+    int getTotalRecords() {
+        return totalRecords;
+    }
+
+    int getDimensions() {
+        return dimensions;
+    }
+
+    // True if the records store their upper coordinates, false if all of them are points
+    boolean hasExtents() {
+        return extents;
+    }
+
+    int getCoordinateColumns() {
+        return BlockFormat.getCoordinateColumns(dimensions, extents);
+    }
+
+    // Bytes of the block used by the header, the record slots and the names
+    int getUsedBytes() {
+        return usedBytes;
+    }
+
+    // Bytes taken by the records of the view, by which it is weighted in the data block cache
+    int getSizeInMemory() {
+        return usedBytes;
+    }
+
+    // The buffer the records are read from, or null if the view keeps the records in arrays of its own
+    ByteBuffer getBlock() {
+        return block;
+    }
+
+    // Copies the block to the heap, called before the memory of the block in the OffHeapArena is freed
+    void moveToHeap() {
+        block = copyToHeap(block);
+    }
+
+    static ByteBuffer copyToHeap(ByteBuffer block) {
+        ByteBuffer heapBlock = ByteBuffer.allocate(block.capacity());
+        heapBlock.put(0, block, 0, block.capacity());
+        return heapBlock;
+    }
+
+    private int getSlotOffset(int slot) {
+        return BlockFormat.DATA_HEADER_SIZE + slot * slotSize;
+    }
+
+    long getRecordID(int slot) {
+        return block.getLong(getSlotOffset(slot));
+    }
+
+    double getCoordinate(int slot, int dimension) {
+        return block.getDouble(getSlotOffset(slot) + Long.BYTES + dimension * Double.BYTES);
+    }
+
+    // The upper coordinate of the record in the dimension, its coordinate if the record is a point
+    double getUpperCoordinate(int slot, int dimension) {
+        return getCoordinate(slot, extents ? dimensions + dimension : dimension);
+    }
+
+    // Returns the coordinates of all the records in the dimension, used by the scan operators of DataBlockScanner.
+    // They are copied to the given buffer (which must have room for all the records), unless the view keeps them
+    // in an array of its own which is returned instead, so the returned array must not be modified
+    double[] getCoordinateColumn(int dimension, double[] buffer) {
+        for (int slot = 0; slot < totalRecords; slot++)
+            buffer[slot] = getCoordinate(slot, dimension);
+        return buffer;
+    }
+
+    // Returns the upper coordinates of all the records in the dimension, in the same way as getCoordinateColumn
+    double[] getUpperCoordinateColumn(int dimension, double[] buffer) {
+        return getCoordinateColumn(extents ? dimensions + dimension : dimension, buffer);
+    }
+
+    String getName(int slot) {
+        int nameInfoOffset = getSlotOffset(slot) + Long.BYTES + getCoordinateColumns() * Double.BYTES;
+        int nameOffset = Short.toUnsignedInt(block.getShort(nameInfoOffset));
+        int nameLength = Short.toUnsignedInt(block.getShort(nameInfoOffset + Short.BYTES));
+        byte[] nameBytes = new byte[nameLength];
+        block.get(nameOffset, nameBytes);
+        return new String(nameBytes, StandardCharsets.UTF_8);
+    }
+
+    Record getRecord(int slot) {
+        double[] coordinates = new double[dimensions];
+        for (int d = 0; d < dimensions; d++)
+            coordinates[d] = getCoordinate(slot, d);
+        if (!extents)
+            return new Record(getRecordID(slot), getName(slot), coordinates);
+        double[] upperCoordinates = new double[dimensions];
+        for (int d = 0; d < dimensions; d++)
+            upperCoordinates[d] = getUpperCoordinate(slot, d);
+        return new Record(getRecordID(slot), getName(slot), coordinates, upperCoordinates);
+    }
+
+    ArrayList<Record> getRecords() {
+        ArrayList<Record> records = new ArrayList<>(totalRecords);
+        for (int slot = 0; slot < totalRecords; slot++)
+            records.add(getRecord(slot));
+        return records;
+    }
+}
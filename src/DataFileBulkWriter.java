@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+// Writes the blocks of a new datafile one after the other through a single open channel. The encoded blocks are
+// gathered in a direct buffer and written to the file in large sequential writes, instead of one write (and one
+// metadata update) per block. Records added one by one are packed into blocks by a DataBlockPacker. The blocks do
+// not go through the write-ahead log: the file is new, so there is no previous state to keep, and its metadata
+// block is written straight into the file by the caller once all the blocks are in it
+class DataFileBulkWriter implements AutoCloseable {
+    private static final int BLOCKS_PER_WRITE = 64;
+
+    private final FileChannel channel;
+    private final int dimensions;
+    private final int blockSize;
+    private final byte layout;
+    private final ByteBuffer batch;
+    private final DataBlockPacker packer;
+    private long nextBlockId; // ID of the next block added
+    private long batchFirstBlockId; // ID of the first block gathered in the batch
+
+    DataFileBulkWriter(String pathToFile, int dimensions, int blockSize, byte layout, long firstBlockId) throws IOException {
+        this.channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.dimensions = dimensions;
+        this.blockSize = blockSize;
+        this.layout = layout;
+        this.batch = ByteBuffer.allocateDirect(BLOCKS_PER_WRITE * blockSize);
+        this.packer = new DataBlockPacker(dimensions, blockSize, layout, this::writeEncodedBlock);
+        this.nextBlockId = firstBlockId;
+        this.batchFirstBlockId = firstBlockId;
+    }
+
+    // Adds the record to the block being packed, starting a new block if the record does not fit in it
+    void addRecord(Record record) throws IOException {
+        packer.addRecord(record);
+    }
+
+    // Returns a packer writing its blocks to the datafile, filling only the given fraction of every block. The
+    // blocks of the packer are written when it packs them, so its records are not mixed with the records added to
+    // the writer
+    DataBlockPacker createPacker(double fillFactor) {
+        return createPacker(fillFactor, this::writeEncodedBlock);
+    }
+
+    // Returns a packer filling the given fraction of every block in the layout of the datafile, handing its blocks
+    // to the given writer, so blocks can be packed by other threads and written in order afterwards
+    DataBlockPacker createPacker(double fillFactor, DataBlockPacker.BlockWriter blockWriter) {
+        int capacity = Math.max(BlockFormat.DATA_HEADER_SIZE + 1, (int) (fillFactor * blockSize));
+        return new DataBlockPacker(dimensions, blockSize, capacity, layout, blockWriter);
+    }
+
+    // Adds a block with the given records and returns its block ID
+    long writeBlock(ArrayList<Record> records) throws IOException {
+        byte[] block = BlockFormat.encodeDataBlock(records, dimensions, blockSize, layout);
+        if (block == null)
+            throw new IllegalStateException("Block too large to fit in one data block");
+        return writeEncodedBlock(block);
+    }
+
+    // Adds a block already encoded in the layout of the datafile and returns its block ID
+    long writeEncodedBlock(byte[] block) throws IOException {
+        if (!batch.hasRemaining())
+            writeBatch();
+        batch.put(block);
+        return nextBlockId++;
+    }
+
+    private void writeBatch() throws IOException {
+        batch.flip();
+        long position = batchFirstBlockId * blockSize;
+        while (batch.hasRemaining())
+            position += channel.write(batch, position);
+        batch.clear();
+        batchFirstBlockId = nextBlockId;
+    }
+
+    // Total blocks of the datafile, including the metadata block, written so far or once the writer is closed
+    long getTotalBlocks() {
+        return nextBlockId;
+    }
+
+    // Writes the remaining blocks and forces the file to the disk
+    @Override
+    public void close() throws IOException {
+        try {
+            packer.finish();
+            writeBatch();
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
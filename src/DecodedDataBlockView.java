@@ -0,0 +1,43 @@
+import java.nio.charset.StandardCharsets;
+
+// View over the records of a data block decoded from another layout (such as a compressed block) into columns:
+// the record IDs, the coordinates of each dimension and the UTF-8 bytes of the names
+class DecodedDataBlockView extends DataBlockView {
+    private final long[] recordIds;
+    private final double[][] coordinates; // Each coordinate column, of the dimensions and then of the upper coordinates
+    private final byte[] names;
+    private final int[] nameOffsets; // Name of slot s in [nameOffsets[s], nameOffsets[s + 1]) of names
+
+    DecodedDataBlockView(int dimensions, boolean extents, int usedBytes, long[] recordIds, double[][] coordinates, byte[] names, int[] nameOffsets) {
+        super(null, dimensions, extents, recordIds.length, usedBytes);
+        this.recordIds = recordIds;
+        this.coordinates = coordinates;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+    }
+
+    @Override
+    int getSizeInMemory() {
+        return recordIds.length * Long.BYTES + coordinates.length * recordIds.length * Double.BYTES + names.length + nameOffsets.length * Integer.BYTES;
+    }
+
+    @Override
+    long getRecordID(int slot) {
+        return recordIds[slot];
+    }
+
+    @Override
+    double getCoordinate(int slot, int dimension) {
+        return coordinates[dimension][slot];
+    }
+
+    @Override
+    double[] getCoordinateColumn(int dimension, double[] buffer) {
+        return coordinates[dimension];
+    }
+
+    @Override
+    String getName(int slot) {
+        return new String(names, nameOffsets[slot], nameOffsets[slot + 1] - nameOffsets[slot], StandardCharsets.UTF_8);
+    }
+}
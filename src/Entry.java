@@ -1,12 +1,21 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 
 // An Entry refers to the address of a child node in the RStarTree and to its BoundingBox (it's covering rectangle),
 // which covers all the MBRs in the child node's Entries
 class Entry implements Serializable {
-    private BoundingBox BoundingBox; // The closed bounded intervals describing the extent of the object along each dimension
+    private BoundingBox boundingBox; // The closed bounded intervals describing the extent of the object along each dimension
     private Long childNodeBlockId; // The address (block ID) of a child node in the RStarTree
 
+    // The serialized form of the nodes of the legacy index files, whose bounding box field is named BoundingBox
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("BoundingBox", BoundingBox.class),
+            new ObjectStreamField("childNodeBlockId", Long.class)
+    };
+
     // Constructor which takes parameters the child node of the entry
     Entry(Node childNode) {
         this.childNodeBlockId = childNode.getNodeBlockId();
@@ -14,9 +23,9 @@ class Entry implements Serializable {
     }
 
     // Constructor which takes parameters the MBR of the node
-    Entry(BoundingBox BoundingBox)
+    Entry(BoundingBox boundingBox)
     {
-        this.BoundingBox = BoundingBox;
+        this.boundingBox = boundingBox;
     }
 
     void setChildNodeBlockId(Long childNodeBlockId) {
@@ -24,7 +33,7 @@ class Entry implements Serializable {
     }
 
     BoundingBox getBoundingBox() {
-        return BoundingBox;
+        return boundingBox;
     }
 
     Long getChildNodeBlockId() {
@@ -34,12 +43,24 @@ class Entry implements Serializable {
     // Adjusting the MBR of the entry by replacing it with a new bounding box having the new minimum bounds
     // passed by the array list parameter
     void adjustBBToFitEntries(ArrayList<Entry> entries){
-        BoundingBox = new BoundingBox(Bounds.findMinimumBounds(entries));
+        boundingBox = BoundingBox.findMinimumBoundingBox(entries);
+    }
+
+    // Adjusting the MBR of the entry to the minimum bounds of the given records, used by the leaf entries
+    // when the records of their datafile block change
+    void adjustBBToFitRecords(ArrayList<Record> records){
+        boundingBox = new BoundingBox(Bounds.findMinimumBoundsFromRecords(records));
     }
 
     // Adjusting the Bounding Box of the entry by replacing it with a new bounding having the extended minimum bounds
     // so that they enclose the entryToInclude
     void adjustBBToFitEntry(Entry entryToInclude){
-        BoundingBox = new BoundingBox(Bounds.findMinimumBounds(BoundingBox,entryToInclude.getBoundingBox()));
+        boundingBox = BoundingBox.findMinimumBoundingBox(boundingBox,entryToInclude.getBoundingBox());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        boundingBox = (BoundingBox) fields.get("BoundingBox", null);
+        childNodeBlockId = (Long) fields.get("childNodeBlockId", null);
     }
 }
@@ -18,12 +18,12 @@ class EntryComparator {
             if (compareByUpper)
             {
                 for (Entry entry : entriesToCompare)
-                    entryComparisonMap.put(entry,entry.getBoundingBox().getBounds().get(dimension).getUpper());
+                    entryComparisonMap.put(entry,entry.getBoundingBox().getUpper(dimension));
             }
             else
             {
                 for (Entry entry : entriesToCompare)
-                    entryComparisonMap.put(entry,entry.getBoundingBox().getBounds().get(dimension).getLower());
+                    entryComparisonMap.put(entry,entry.getBoundingBox().getLower(dimension));
             }
         }
 
@@ -45,7 +45,7 @@ class EntryComparator {
             this.entryComparisonMap = new HashMap<>();
             for (Entry entry : entriesToCompare)
             {
-                BoundingBox entryNewBB = new BoundingBox(Bounds.findMinimumBounds(entry.getBoundingBox(), BoundingBoxToAdd));
+                BoundingBox entryNewBB = BoundingBox.findMinimumBoundingBox(entry.getBoundingBox(), BoundingBoxToAdd);
                 ArrayList<Double> values = new ArrayList<>();
                 values.add(entry.getBoundingBox().getArea()); // First value of the ArrayList is the area of the bounding box
                 double areaEnlargement = entryNewBB.getArea() - entry.getBoundingBox().getArea();
@@ -88,7 +88,7 @@ class EntryComparator {
             for (Entry entry : entriesToCompare)
             {
                 double overlapEntry = calculateEntryOverlapValue(entry, entry.getBoundingBox());
-                Entry newEntry = new Entry(new BoundingBox(Bounds.findMinimumBounds(entry.getBoundingBox(), BoundingBoxToAdd)));
+                Entry newEntry = new Entry(BoundingBox.findMinimumBoundingBox(entry.getBoundingBox(), BoundingBoxToAdd));
                 double overlapNewEntry = calculateEntryOverlapValue(entry, newEntry.getBoundingBox());
                 double overlapEnlargementEntry = overlapNewEntry - overlapEntry ;
 
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ToLongFunction;
+
+// External merge sort of records by a key, for sorting more records than fit in the heap. The records are added
+// to a buffer, and every time the buffer reaches the memory given to the sorter it is sorted and spilled to a
+// temporary run file, written as data blocks like the datafile. Once all the records are added, the runs (and the
+// records left in the buffer) are merged by reading one block of every run at a time, so the sorter only keeps
+// the buffer and one block per run in memory. Records with the same key are ordered by their ID, so the order of
+// the records does not depend on the order in which they were added or on the threads sorting them
+class ExternalRecordSorter implements AutoCloseable {
+    private static final int RECORD_OVERHEAD = 96; // Bytes of the objects of a record in the heap, besides its encoded size
+    private static final int SEQUENTIAL_SORT_SIZE = 8192; // Records sorted by one task without splitting them
+    private static final int INSERTION_SORT_SIZE = 32;
+
+    private final int dimensions;
+    private final int blockSize;
+    private final ToLongFunction<Record> keyFunction;
+    private final long maxBytesInMemory;
+    private final ForkJoinPool pool;
+    private ArrayList<Record> buffer = new ArrayList<>();
+    private long bufferedBytes;
+    private final ArrayList<Path> runFiles = new ArrayList<>();
+    private long totalRecords;
+    private PriorityQueue<RunReader> mergeQueue; // The runs by their next record, null until finish()
+
+    ExternalRecordSorter(int dimensions, int blockSize, ToLongFunction<Record> keyFunction, long maxBytesInMemory, ForkJoinPool pool) {
+        this.dimensions = dimensions;
+        this.blockSize = blockSize;
+        this.keyFunction = keyFunction;
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.pool = pool;
+    }
+
+    // Key ordering doubles like the values they stand for, to sort records by a coordinate
+    static long getSortableKey(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    // Estimated bytes taken by the record in the heap
+    static long getSizeInMemory(Record record, int dimensions) {
+        return BlockFormat.getRecordSize(record, dimensions) + RECORD_OVERHEAD;
+    }
+
+    void add(Record record) throws IOException {
+        if (mergeQueue != null)
+            throw new IllegalStateException("No records can be added to the sorter after it is finished");
+        buffer.add(record);
+        bufferedBytes += getSizeInMemory(record, dimensions);
+        totalRecords++;
+        if (bufferedBytes >= maxBytesInMemory)
+            spillRun();
+    }
+
+    long getTotalRecords() {
+        return totalRecords;
+    }
+
+    // Sorts the buffer and writes it to a new run file
+    private void spillRun() throws IOException {
+        Path runFile = Files.createTempFile("rstar-run", ".tmp");
+        runFiles.add(runFile);
+        try (DataFileBulkWriter runWriter = new DataFileBulkWriter(runFile.toString(), dimensions, blockSize, BlockFormat.ROW_DATA_LAYOUT, 0)) {
+            for (Record record : sortBuffer())
+                runWriter.addRecord(record);
+        }
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    // Returns the records of the buffer sorted by their keys, which are computed and sorted by the tasks of the pool
+    private Record[] sortBuffer() {
+        int totalBuffered = buffer.size();
+        int[] order = new int[totalBuffered];
+        pool.invoke(new KeySortTask(buffer, keyFunction, new long[totalBuffered], new long[totalBuffered], order, new int[totalBuffered], 0, totalBuffered));
+        Record[] sortedRecords = new Record[totalBuffered];
+        for (int i = 0; i < totalBuffered; i++)
+            sortedRecords[i] = buffer.get(order[i]);
+        return sortedRecords;
+    }
+
+    // Sorts the positions of a range of the buffer by the keys of their records and then by the record IDs, on
+    // primitive arrays. The keys of a range are computed by the task sorting it, and larger ranges are split in
+    // two halves sorted in parallel and merged
+    private static class KeySortTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient ArrayList<Record> records;
+        private final transient ToLongFunction<Record> keyFunction;
+        private final long[] keys;
+        private final long[] recordIds;
+        private final int[] order;
+        private final int[] scratch;
+        private final int from;
+        private final int to;
+
+        KeySortTask(ArrayList<Record> records, ToLongFunction<Record> keyFunction, long[] keys, long[] recordIds, int[] order, int[] scratch, int from, int to) {
+            this.records = records;
+            this.keyFunction = keyFunction;
+            this.keys = keys;
+            this.recordIds = recordIds;
+            this.order = order;
+            this.scratch = scratch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_SORT_SIZE) {
+                for (int i = from; i < to; i++) {
+                    keys[i] = keyFunction.applyAsLong(records.get(i));
+                    recordIds[i] = records.get(i).getRecordID();
+                    order[i] = i;
+                }
+                mergeSort(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new KeySortTask(records, keyFunction, keys, recordIds, order, scratch, from, middle),
+                    new KeySortTask(records, keyFunction, keys, recordIds, order, scratch, middle, to));
+            merge(from, middle, to);
+        }
+
+        private void mergeSort(int start, int end) {
+            if (end - start <= INSERTION_SORT_SIZE) {
+                for (int i = start + 1; i < end; i++) {
+                    int position = order[i];
+                    int j = i;
+                    for (; j > start && compare(order[j - 1], position) > 0; j--)
+                        order[j] = order[j - 1];
+                    order[j] = position;
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            mergeSort(start, middle);
+            mergeSort(middle, end);
+            merge(start, middle, end);
+        }
+
+        // Merges the sorted ranges [start, middle) and [middle, end) of the order
+        private void merge(int start, int middle, int end) {
+            if (compare(order[middle - 1], order[middle]) <= 0)
+                return;
+            System.arraycopy(order, start, scratch, start, end - start);
+            int left = start;
+            int right = middle;
+            for (int i = start; i < end; i++) {
+                if (right == end || (left < middle && compare(scratch[left], scratch[right]) <= 0))
+                    order[i] = scratch[left++];
+                else
+                    order[i] = scratch[right++];
+            }
+        }
+
+        private int compare(int a, int b) {
+            int byKey = Long.compare(keys[a], keys[b]);
+            return byKey != 0 ? byKey : Long.compare(recordIds[a], recordIds[b]);
+        }
+    }
+
+    // Ends the adding of the records and starts the merge of the runs, read by readRecord
+    void finish() throws IOException {
+        if (mergeQueue != null)
+            return;
+        mergeQueue = new PriorityQueue<>(Comparator.comparingLong((RunReader run) -> run.key)
+                .thenComparingLong(run -> run.record.getRecordID()));
+        for (Path runFile : runFiles)
+            addToMergeQueue(new FileRunReader(runFile));
+        addToMergeQueue(new BufferRunReader(sortBuffer()));
+        buffer = new ArrayList<>();
+    }
+
+    // Returns the next record in the order of the keys, or null once all of them are read
+    Record readRecord() throws IOException {
+        finish();
+        RunReader run = mergeQueue.poll();
+        if (run == null)
+            return null;
+        Record record = run.record;
+        addToMergeQueue(run);
+        return record;
+    }
+
+    private void addToMergeQueue(RunReader run) throws IOException {
+        run.record = run.readNext();
+        if (run.record == null) {
+            run.close();
+            return;
+        }
+        run.key = keyFunction.applyAsLong(run.record);
+        mergeQueue.add(run);
+    }
+
+    // A sorted run being merged, with its next record and the key of the record
+    private abstract static class RunReader {
+        private Record record;
+        private long key;
+
+        abstract Record readNext() throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    private static class BufferRunReader extends RunReader {
+        private final Record[] records;
+        private int position;
+
+        BufferRunReader(Record[] records) {
+            this.records = records;
+        }
+
+        @Override
+        Record readNext() {
+            if (position == records.length)
+                return null;
+            Record record = records[position];
+            records[position++] = null;
+            return record;
+        }
+    }
+
+    // Reads the blocks of a run file one at a time
+    private class FileRunReader extends RunReader {
+        private final FileChannel channel;
+        private final long totalBlocks;
+        private final ByteBuffer blockBuffer = ByteBuffer.allocate(blockSize);
+        private long nextBlockId;
+        private DataBlockView block;
+        private int slot;
+
+        FileRunReader(Path runFile) throws IOException {
+            this.channel = FileChannel.open(runFile, StandardOpenOption.READ);
+            this.totalBlocks = channel.size() / blockSize;
+        }
+
+        @Override
+        Record readNext() throws IOException {
+            while (block == null || slot == block.getTotalRecords()) {
+                if (nextBlockId == totalBlocks)
+                    return null;
+                blockBuffer.clear();
+                while (blockBuffer.hasRemaining()) {
+                    if (channel.read(blockBuffer, nextBlockId * blockSize + blockBuffer.position()) < 0)
+                        throw new IOException("The run file ended while it was being read");
+                }
+                nextBlockId++;
+                block = BlockFormat.decodeDataBlockView(blockBuffer);
+                slot = 0;
+            }
+            return block.getRecord(slot++);
+        }
+
+        @Override
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Deletes the run files
+    @Override
+    public void close() throws IOException {
+        if (mergeQueue != null) {
+            for (RunReader run : mergeQueue)
+                run.close();
+            mergeQueue.clear();
+        }
+        buffer = new ArrayList<>();
+        for (Path runFile : runFiles)
+            Files.deleteIfExists(runFile);
+        runFiles.clear();
+    }
+}
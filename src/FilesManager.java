@@ -1,7 +1,11 @@
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 class FilesManager {
@@ -9,13 +13,32 @@ class FilesManager {
     private static final String PATH_TO_CSV = "src/resources/data.csv";
     static final String PATH_TO_DATAFILE = "src/resources/datafile.dat";
     static final String PATH_TO_INDEXFILE = "src/resources/indexfile.dat";
+    static final String PATH_TO_RECORD_INDEX = "src/resources/recordindex.dat";
+    static final String PATH_TO_FREE_SPACE_MAP = "src/resources/freespacemap.dat";
+    static final String PATH_TO_WAL = "src/resources/wal.log";
     private static final int BLOCK_SIZE = 32 * 1024;
     private static int dataDimensions;
     private static int totalBlocksInDataFile;
     private static int totalBlocksInIndexFile;
     private static int totalLevelsOfTreeIndex;
-    private static long nextAvailableIndexBlockId = 1;
-    private static final Map<Long, Node> indexBuffer = new LinkedHashMap<>();
+    private static final int LEGACY_MAX_ENTRIES_IN_NODE = 4; // Fan-out of the index files that did not store it
+    private static int requestedMaxEntriesInNode = 0; // Fan-out for new index files, 0 to derive it from the block size
+    private static final int DEFAULT_INDEX_BUFFER_PAGES = 1024; // Default amount of index nodes kept in memory
+    private static IndexBufferPool indexBuffer = new IndexBufferPool(DEFAULT_INDEX_BUFFER_PAGES,
+            IndexBufferPool.ReplacementPolicy.LRU, FilesManager::writeIndexFileBlockToDisk);
+    private static boolean memoryMappedReads = false; // Read blocks from memory-mapped files instead of copying them
+    private static final Map<String, MappedBlockFile> mappedFiles = new HashMap<>();
+    private static final long DEFAULT_DATA_BLOCK_CACHE_BYTES = 16 * 1024 * 1024;
+    private static DataBlockCache dataBlockCache = new DataBlockCache(DEFAULT_DATA_BLOCK_CACHE_BYTES);
+    private static OffHeapArena dataBlockArena; // Memory outside of the heap for the cached datafile blocks, null if not used
+    private static OffHeapNodeCache offHeapNodeCache; // Nodes read by the queries kept outside of the heap, null if not used
+    private static RecordIndex recordIndex; // Datafile block of every record ID, null while the datafile is being loaded
+    private static byte dataBlockLayout = BlockFormat.ROW_DATA_LAYOUT; // Layout of the datafile blocks
+    private static byte requestedDataBlockLayout = BlockFormat.ROW_DATA_LAYOUT; // Layout for new datafiles
+    private static FreeSpaceMap freeSpaceMap; // Used bytes of every datafile block, null while the datafile is being loaded
+    private static final WriteAheadLog writeAheadLog = new WriteAheadLog(PATH_TO_WAL, BLOCK_SIZE);
+    private static int batchDepth = 0; // Batches opened and not committed yet, only the outermost one commits
+    private static int csvLoadThreads = Runtime.getRuntime().availableProcessors(); // Threads reading the CSV file
 
 
     static String getPathToCsv() {
@@ -30,11 +53,108 @@ class FilesManager {
         return dataDimensions;
     }
 
-    private static byte[] serialize(Object obj) throws IOException {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(stream);
-        oos.writeObject(obj);
-        return stream.toByteArray();
+    static int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    // Reads the whole block with the given ID from the file, or its contents written in the current batch
+    static byte[] readBlock(String pathToFile, long blockId) throws IOException {
+        byte[] pendingBlock = writeAheadLog.read(pathToFile, blockId);
+        if (pendingBlock != null)
+            return pendingBlock;
+        try (RandomAccessFile accessFile = new RandomAccessFile(pathToFile, "r")) {
+            byte[] block = new byte[BLOCK_SIZE];
+            accessFile.seek(blockId * BLOCK_SIZE);
+            int bytesRead = accessFile.read(block);
+            if (bytesRead != BLOCK_SIZE)
+                throw new IOException("The block size read was not exactly " + BLOCK_SIZE + " bytes (got " + bytesRead + ")");
+            return block;
+        }
+    }
+
+    // Returns the block with the given ID as a buffer. When memory-mapped reads are enabled the buffer is a
+    // read-only slice of the mapped file, otherwise the block is copied from the file
+    private static ByteBuffer readBlockBuffer(String pathToFile, long blockId) throws IOException {
+        byte[] pendingBlock = writeAheadLog.read(pathToFile, blockId);
+        if (pendingBlock != null)
+            return ByteBuffer.wrap(pendingBlock);
+        if (!memoryMappedReads)
+            return ByteBuffer.wrap(readBlock(pathToFile, blockId));
+        MappedBlockFile mappedFile = mappedFiles.computeIfAbsent(pathToFile, path -> new MappedBlockFile(Paths.get(path), BLOCK_SIZE));
+        return mappedFile.getBlock(blockId);
+    }
+
+    private static byte[] toByteArray(ByteBuffer block) {
+        byte[] blockBytes = new byte[block.capacity()];
+        block.get(0, blockBytes);
+        return blockBytes;
+    }
+
+    static void setMemoryMappedReads(boolean memoryMappedReads) {
+        FilesManager.memoryMappedReads = memoryMappedReads;
+        if (!memoryMappedReads)
+            mappedFiles.clear();
+    }
+
+    static boolean isMemoryMappedReads() {
+        return memoryMappedReads;
+    }
+
+    // Writes the whole block at the position of the given block ID, extending the file if needed. The block is
+    // added to the current batch of the write-ahead log and reaches the file when the batch is committed; a write
+    // outside of a batch is committed on its own
+    static void writeBlock(String pathToFile, long blockId, byte[] block) throws IOException {
+        if (batchDepth > 0) {
+            writeAheadLog.write(pathToFile, blockId, block);
+            return;
+        }
+        beginBatch();
+        writeAheadLog.write(pathToFile, blockId, block);
+        commitBatch();
+    }
+
+    // Deletes the file along with the blocks written to it in the current batch
+    static void deleteFile(String pathToFile) throws IOException {
+        mappedFiles.remove(pathToFile);
+        writeAheadLog.discard(pathToFile);
+        Files.deleteIfExists(Paths.get(pathToFile));
+    }
+
+    // Starts a batch of block writes that are committed together. Batches can be nested, so a batch of many
+    // insertions or deletions is forced to the disk once instead of once per insertion or deletion
+    static void beginBatch() {
+        batchDepth++;
+    }
+
+    // Commits the batch if it is the outermost one: the modified nodes of the index buffer are written to the
+    // batch as well, then the write-ahead log is forced to the disk and the blocks are written to their files
+    static void commitBatch() {
+        if (batchDepth == 0)
+            throw new IllegalStateException("There is no batch to commit");
+        try {
+            if (batchDepth == 1) {
+                if (indexBuffer.hasDirtyPages()) {
+                    indexBuffer.flush(FilesManager::writeIndexFileBlockToDisk);
+                    updateMetaDataBlock(PATH_TO_INDEXFILE);
+                }
+                writeAheadLog.commit();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            batchDepth--;
+        }
+    }
+
+    // Writes again the blocks of a batch that was committed but not written to the files completely
+    // The log is recovered when the files are opened. A file opened again inside an outer batch (like the datafile
+    // replaced by the bulk load of the tree) is not recovered, since the log was recovered when the files of the
+    // outer batch were opened and holds the blocks the batch has written so far
+    private static void recoverWriteAheadLog() throws IOException {
+        if (batchDepth > 1)
+            return;
+        if (writeAheadLog.recover())
+            System.out.println("Recovered the last committed batch of block writes from the write-ahead log");
     }
 
     static ArrayList<Integer> getIndexMetaData() {
@@ -47,159 +167,270 @@ class FilesManager {
 
     private static ArrayList<Integer> readMetaDataBlock(String pathToFile) {
         try {
-            RandomAccessFile accessFile = new RandomAccessFile(new File(pathToFile), "r");
-            byte[] block = new byte[BLOCK_SIZE];
-            accessFile.seek(0);
-            int bytesRead = accessFile.read(block);
-            if (bytesRead != BLOCK_SIZE) {
-                throw new IOException("Could not read full metadata block (expected " + BLOCK_SIZE + ", got " + bytesRead + ")");
-            }
-            ByteArrayInputStream byte_input_stream = new ByteArrayInputStream(block);
-            ObjectInputStream obj_input_stream = new ObjectInputStream(byte_input_stream);
-            int metaDataSize = (Integer) obj_input_stream.readObject();
-            byte[] metadataBytes = new byte[metaDataSize];
-            int read_content = byte_input_stream.read(metadataBytes);
-            if (read_content != metaDataSize) {
-                throw new IOException("Could not read full metadata content");
-            }
-            ObjectInputStream metadataStream = new ObjectInputStream(new ByteArrayInputStream(metadataBytes));
-            return (ArrayList<Integer>) metadataStream.readObject();
+            ByteBuffer block = readBlockBuffer(pathToFile, 0);
+            if (!BlockFormat.isBinaryBlock(block))
+                return LegacyBlockReader.readMetaData(toByteArray(block));
+            return BlockFormat.decodeMetaData(block);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    // The first block of a datafile whose loading did not finish is missing or holds only zeros. A new datafile is
+    // moved into place only once it is complete (see loadNewDataFile), so such a datafile is left only by a load
+    // that wrote the datafile in place
+    private static boolean hasMetaDataBlock(String pathToFile) throws IOException {
+        if (Files.size(Paths.get(pathToFile)) < BLOCK_SIZE)
+            return false;
+        ByteBuffer block = readBlockBuffer(pathToFile, 0);
+        for (int i = 0; i < block.limit(); i++) {
+            if (block.get(i) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isLegacyFile(String pathToFile) throws IOException {
+        return !BlockFormat.isBinaryBlock(ByteBuffer.wrap(readBlock(pathToFile, 0)));
+    }
+
     private static void updateMetaDataBlock(String pathToFile) {
         try {
-            ArrayList<Integer> fileMetaData = new ArrayList<>();
-            fileMetaData.add(dataDimensions);
-            fileMetaData.add(BLOCK_SIZE);
-            if (pathToFile.equals(PATH_TO_DATAFILE)) {
-                fileMetaData.add(totalBlocksInDataFile);
-            } else if (pathToFile.equals(PATH_TO_INDEXFILE)) {
-                fileMetaData.add(totalBlocksInIndexFile);
-                fileMetaData.add(totalLevelsOfTreeIndex);
-            }
-            byte[] metaDataInBytes = serialize(fileMetaData);
-            byte[] metaDataSizeBytes = serialize(metaDataInBytes.length);
-            byte[] blockInBytes = new byte[BLOCK_SIZE];
-            System.arraycopy(metaDataSizeBytes, 0, blockInBytes, 0, metaDataSizeBytes.length);
-            System.arraycopy(metaDataInBytes, 0, blockInBytes, metaDataSizeBytes.length, metaDataInBytes.length);
-            RandomAccessFile accessFile = new RandomAccessFile(new File(pathToFile), "rw");
-            accessFile.write(blockInBytes);
-            accessFile.close();
+            int totalBlocks = pathToFile.equals(PATH_TO_DATAFILE) ? totalBlocksInDataFile : totalBlocksInIndexFile;
+            writeBlock(pathToFile, 0, encodeMetaDataBlock(pathToFile, totalBlocks));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    private static byte[] encodeMetaDataBlock(String pathToFile, int totalBlocks) {
+        ArrayList<Integer> fileMetaData = new ArrayList<>();
+        fileMetaData.add(dataDimensions);
+        fileMetaData.add(BLOCK_SIZE);
+        fileMetaData.add(totalBlocks);
+        if (pathToFile.equals(PATH_TO_DATAFILE)) {
+            fileMetaData.add((int) dataBlockLayout);
+        } else if (pathToFile.equals(PATH_TO_INDEXFILE)) {
+            fileMetaData.add(totalLevelsOfTreeIndex);
+            fileMetaData.add(Node.getMaxEntriesInNode());
+        }
+        return BlockFormat.encodeMetaData(fileMetaData, BLOCK_SIZE);
+    }
+
     static int getTotalBlocksInDataFile() {
         return totalBlocksInDataFile;
     }
 
-    private static int calculateMaxRecordsInBlock() {
-        ArrayList<Record> recordsInBlock = new ArrayList<>();
-        int i;
-        for (i = 0; i < 10000; i++) {
-            ArrayList<Double> coordinates = new ArrayList<>();
-            for (int d = 0; d < dataDimensions; d++)
-                coordinates.add(0.0);
-            Record record = new Record(0, "default_name", coordinates);
-            recordsInBlock.add(record);
-            byte[] recordInBytes = serializeOrEmpty(recordsInBlock);
-            byte[] lengthInBytes = serializeOrEmpty(recordInBytes.length);
-            if (lengthInBytes.length + recordInBytes.length > BLOCK_SIZE)
-                break;
-        }
-        System.out.println("Max records in a block: " + (i-1));
-        return i - 1;
+    // Sets the layout of the data blocks (row, compressed or columnar) for the datafiles created from now on.
+    // It is stored in the metadata of the datafile, so existing datafiles keep their own layout
+    static void setDataBlockLayout(byte layout) {
+        FilesManager.requestedDataBlockLayout = layout;
     }
 
-    private static byte[] serializeOrEmpty(Object obj) {
-        try {
-            return serialize(obj);
-        } catch (IOException e) {
-            return new byte[0];
-        }
+    // Sets the number of threads reading the CSV file into new datafiles. The datafile is the same for any number
+    static void setCsvLoadThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread must read the CSV file");
+        FilesManager.csvLoadThreads = threads;
+    }
+
+    static byte getDataBlockLayout() {
+        return dataBlockLayout;
+    }
+
+    // Encodes the records in the layout of the datafile, returning null if they do not fit in one block
+    private static byte[] encodeDataFileBlock(ArrayList<Record> records) {
+        return BlockFormat.encodeDataBlock(records, dataDimensions, BLOCK_SIZE, dataBlockLayout);
     }
 
-    public static void writeDataFileBlock(ArrayList<Record> records) {
+    // Writes the records in a new datafile block and returns its ID. A block left without records is used again
+    // if there is one, otherwise the block is appended at the end of the datafile
+    public static long writeDataFileBlock(ArrayList<Record> records) {
         try {
-            byte[] recordSerialized = serialize(records);
-            byte[] metaDataLengthSerialized = serialize(recordSerialized.length);
-            byte[] block = new byte[BLOCK_SIZE];
-            if (metaDataLengthSerialized.length + recordSerialized.length > BLOCK_SIZE) {
+            byte[] block = encodeDataFileBlock(records);
+            if (block == null)
                 throw new IllegalStateException("Block too large to fit in one data block");
+            long blockId = freeSpaceMap == null ? -1 : freeSpaceMap.findEmptyBlock();
+            if (blockId == -1) {
+                blockId = totalBlocksInDataFile;
+                writeBlock(PATH_TO_DATAFILE, blockId, block);
+                totalBlocksInDataFile++;
+                updateMetaDataBlock(PATH_TO_DATAFILE);
+            } else {
+                dataBlockCache.invalidate(blockId);
+                writeBlock(PATH_TO_DATAFILE, blockId, block);
+            }
+            if (freeSpaceMap != null)
+                freeSpaceMap.setUsedBytes((int) blockId, BlockFormat.getDataBlockUsedBytes(block));
+            if (recordIndex != null) {
+                for (Record record : records)
+                    recordIndex.put(record.getRecordID(), blockId);
+                recordIndex.setDataFileBlocks(totalBlocksInDataFile);
+                if (recordIndex.needsRebuild())
+                    rebuildRecordIndex();
             }
-            System.arraycopy(metaDataLengthSerialized, 0, block, 0, metaDataLengthSerialized.length);
-            System.arraycopy(recordSerialized, 0, block, metaDataLengthSerialized.length, recordSerialized.length);
-            FileOutputStream fileOutStream = new FileOutputStream(PATH_TO_DATAFILE, true);
-            BufferedOutputStream byteOutStream = new BufferedOutputStream(fileOutStream);
-            byteOutStream.write(block);
-            totalBlocksInDataFile++;
-            updateMetaDataBlock(PATH_TO_DATAFILE);
-            byteOutStream.close();
+            return blockId;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return -1;
     }
 
     static ArrayList<Record> readDataFileBlock(long blockID) {
+        DataBlockView block = readDataFileBlockView(blockID);
+        return block == null ? null : block.getRecords();
+    }
+
+    // Returns a view reading the records of the block in place, without creating Record objects for all of them.
+    // Blocks are served from the data block cache when possible
+    static DataBlockView readDataFileBlockView(long blockID) {
+        DataBlockView cachedBlock = dataBlockCache.get(blockID);
+        if (cachedBlock != null)
+            return cachedBlock;
         try {
-            RandomAccessFile accessFile = new RandomAccessFile(new File(PATH_TO_DATAFILE), "r");
-            accessFile.seek(blockID * BLOCK_SIZE);
-            byte[] block = new byte[BLOCK_SIZE];
-            int bytesRead = accessFile.read(block);
-            if (bytesRead != BLOCK_SIZE)
-                throw new IOException("The block size read was not exactly" + BLOCK_SIZE + " bytes");
-            ByteArrayInputStream arrayInputStream = new ByteArrayInputStream(block);
-            ObjectInputStream objInputStream = new ObjectInputStream(arrayInputStream);
-            int recordDataLength = (Integer) objInputStream.readObject();
-            byte[] recordBytes = new byte[recordDataLength];
-            int readData = arrayInputStream.read(recordBytes);
-            if (readData != recordDataLength)
-                throw new IOException("Could not read the full record data");
-            ObjectInputStream recordOutStream = new ObjectInputStream(new ByteArrayInputStream(recordBytes));
-            return (ArrayList<Record>) recordOutStream.readObject();
+            ByteBuffer block = readBlockBuffer(PATH_TO_DATAFILE, blockID);
+            if (!BlockFormat.isBinaryBlock(block)) {
+                ArrayList<Record> records = LegacyBlockReader.readDataBlock(toByteArray(block));
+                block = ByteBuffer.wrap(BlockFormat.encodeDataBlock(records, dataDimensions, BLOCK_SIZE));
+            }
+            // Uncompressed blocks copied from the file are trimmed to their used bytes, so the cache only keeps the records
+            int usedBytes = BlockFormat.getDataBlockUsedBytes(block);
+            if (!memoryMappedReads && !BlockFormat.isCompressedDataBlock(block) && usedBytes < BLOCK_SIZE)
+                block = ByteBuffer.wrap(Arrays.copyOf(block.array(), usedBytes));
+            // Compressed blocks are decompressed here, when they are read, and the cache keeps the decompressed records
+            return dataBlockCache.put(blockID, BlockFormat.decodeDataBlockView(block));
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    // Changes the maximum size of the cache of datafile blocks (0 disables it)
+    static void configureDataBlockCache(long maxBytes) {
+        dataBlockCache.clear();
+        dataBlockCache = new DataBlockCache(maxBytes, dataBlockArena);
+    }
+
+    // Keeps the nodes read by the queries and the cached datafile blocks in arenas of the given sizes outside of
+    // the Java heap, so they do not compete for the same memory (0 keeps them on the heap, as before)
+    static void configureOffHeapStorage(long maxNodeBytes, long maxDataBlockBytes) {
+        dataBlockCache.clear();
+        if (offHeapNodeCache != null)
+            offHeapNodeCache.clear();
+        offHeapNodeCache = maxNodeBytes == 0 ? null : new OffHeapNodeCache(new OffHeapArena(maxNodeBytes, BLOCK_SIZE));
+        dataBlockArena = maxDataBlockBytes == 0 ? null : new OffHeapArena(maxDataBlockBytes, BLOCK_SIZE);
+        dataBlockCache = new DataBlockCache(dataBlockCache.getMaxBytes(), dataBlockArena);
+    }
+
+    static OffHeapNodeCache getOffHeapNodeCache() {
+        return offHeapNodeCache;
+    }
+
+    static DataBlockCache getDataBlockCache() {
+        return dataBlockCache;
+    }
+
+    // Rewrites every block of a datafile written with Java object serialization using the binary block format.
+    // The records keep their block IDs, so an existing index remains valid
+    private static void migrateLegacyDataFile() throws IOException, ClassNotFoundException {
+        System.out.println("Migrating legacy datafile to the binary block format...");
+        for (long blockId = 1; blockId < totalBlocksInDataFile; blockId++) {
+            byte[] block = readBlock(PATH_TO_DATAFILE, blockId);
+            if (!BlockFormat.isBinaryBlock(ByteBuffer.wrap(block)))
+                writeBlock(PATH_TO_DATAFILE, blockId, BlockFormat.encodeDataBlock(LegacyBlockReader.readDataBlock(block), dataDimensions, BLOCK_SIZE));
+        }
+        dataBlockCache.clear();
+        updateMetaDataBlock(PATH_TO_DATAFILE);
+    }
+
     static void initializeDataFile(int dataDims, boolean newDataFile) {
+        beginBatch();
         try {
-            if (!newDataFile && Files.exists(Paths.get(PATH_TO_DATAFILE))) {
+            recoverWriteAheadLog();
+            boolean loadedDataFile = !newDataFile && Files.exists(Paths.get(PATH_TO_DATAFILE));
+            if (loadedDataFile && !hasMetaDataBlock(PATH_TO_DATAFILE)) {
+                System.out.println("The loading of the datafile did not finish, loading it again...");
+                loadedDataFile = false;
+            }
+            if (loadedDataFile) {
                 ArrayList<Integer> dataFileMetaData = readMetaDataBlock(PATH_TO_DATAFILE);
                 if (dataFileMetaData == null)
                     throw new Exception("Could not read MetaData block from DataFile");
                 FilesManager.dataDimensions = dataFileMetaData.get(0);
                 totalBlocksInDataFile = dataFileMetaData.get(2);
+                dataBlockLayout = dataFileMetaData.size() > 3 ? (byte) (int) dataFileMetaData.get(3) : BlockFormat.ROW_DATA_LAYOUT;
+                if (isLegacyFile(PATH_TO_DATAFILE))
+                    migrateLegacyDataFile();
+                recordIndex = RecordIndex.open(PATH_TO_RECORD_INDEX, dataDimensions, BLOCK_SIZE);
+                if (recordIndex == null || recordIndex.getDataFileBlocks() != totalBlocksInDataFile)
+                    rebuildRecordIndex();
+                freeSpaceMap = FreeSpaceMap.open(PATH_TO_FREE_SPACE_MAP, dataDimensions, BLOCK_SIZE, totalBlocksInDataFile);
+                if (freeSpaceMap == null)
+                    freeSpaceMap = FreeSpaceMap.build(PATH_TO_FREE_SPACE_MAP, dataDimensions, BLOCK_SIZE, totalBlocksInDataFile);
             } else {
-                Files.deleteIfExists(Paths.get(PATH_TO_DATAFILE));
-                FilesManager.dataDimensions = dataDims;
-                totalBlocksInDataFile = 1;
-                updateMetaDataBlock(PATH_TO_DATAFILE);
-                ArrayList<Record> recordsInBlock = new ArrayList<>();
-                BufferedReader csvReader = new BufferedReader(new FileReader(PATH_TO_CSV));
-                csvReader.readLine();
-                int maxRecordsInBlock = calculateMaxRecordsInBlock();
-                String line;
-                while ((line = csvReader.readLine()) != null) {
-                    if (recordsInBlock.size() == maxRecordsInBlock) {
-                        writeDataFileBlock(recordsInBlock);
-                        recordsInBlock = new ArrayList<>();
-                    }
-                    recordsInBlock.add(new Record(line));
-                }
-                csvReader.close();
-                if (!recordsInBlock.isEmpty())
-                    writeDataFileBlock(recordsInBlock);
+                loadNewDataFile(dataDims, dataFileWriter -> CsvDataFileLoader.load(PATH_TO_CSV, dataFileWriter, dataDimensions, BLOCK_SIZE, dataBlockLayout, csvLoadThreads));
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            commitBatch();
+        }
+    }
+
+    // Writes the records of a new datafile through the bulk writer
+    interface DataFileLoader {
+        void load(DataFileBulkWriter dataFileWriter) throws Exception;
+    }
+
+    // Replaces the datafile with a new one holding the records written by the loader, used to import records from
+    // other sources than the CSV file
+    static void createDataFile(int dataDims, DataFileLoader loader) {
+        beginBatch();
+        try {
+            recoverWriteAheadLog();
+            loadNewDataFile(dataDims, loader);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            commitBatch();
+        }
+    }
+
+    private static void loadNewDataFile(int dataDims, DataFileLoader loader) throws Exception {
+        // The new datafile is written to a sibling file and moved over the datafile only once it is complete and
+        // forced to the disk, so a load that fails or is interrupted leaves the current datafile as it was. Nothing
+        // of the sibling file goes through the write-ahead log: its blocks are written by the bulk writer, and its
+        // metadata block is written last, straight into the sibling file, before the file is forced and moved
+        Path newDataFile = Paths.get(PATH_TO_DATAFILE + ".new");
+        Files.deleteIfExists(newDataFile);
+        int previousDataDimensions = dataDimensions;
+        byte previousDataBlockLayout = dataBlockLayout;
+        FilesManager.dataDimensions = dataDims;
+        dataBlockLayout = requestedDataBlockLayout;
+        DataFileBulkWriter dataFileWriter;
+        try {
+            dataFileWriter = new DataFileBulkWriter(newDataFile.toString(), dataDimensions, BLOCK_SIZE, dataBlockLayout, 1);
+            try (dataFileWriter) {
+                loader.load(dataFileWriter);
+            }
+            try (FileChannel channel = FileChannel.open(newDataFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(encodeMetaDataBlock(PATH_TO_DATAFILE, (int) dataFileWriter.getTotalBlocks())), 0);
+                channel.force(false);
+            }
+        } catch (Exception e) {
+            FilesManager.dataDimensions = previousDataDimensions;
+            dataBlockLayout = previousDataBlockLayout;
+            Files.deleteIfExists(newDataFile);
+            throw e;
         }
+        mappedFiles.remove(PATH_TO_DATAFILE);
+        writeAheadLog.discard(PATH_TO_DATAFILE);
+        Files.move(newDataFile, Paths.get(PATH_TO_DATAFILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        dataBlockCache.clear();
+        totalBlocksInDataFile = (int) dataFileWriter.getTotalBlocks();
+        rebuildRecordIndex();
+        freeSpaceMap = FreeSpaceMap.build(PATH_TO_FREE_SPACE_MAP, dataDimensions, BLOCK_SIZE, totalBlocksInDataFile);
     }
 
     static int getTotalBlocksInIndexFile() {
@@ -212,84 +443,162 @@ class FilesManager {
 
 
     static void initializeIndexFile(int dataDimensions, boolean newFile) {
+        beginBatch();
         try {
+            recoverWriteAheadLog();
+            if (offHeapNodeCache != null)
+                offHeapNodeCache.clear();
             if (!newFile && Files.exists(Paths.get(PATH_TO_INDEXFILE))) {
                 ArrayList<Integer> indexFileMetaData = readMetaDataBlock(PATH_TO_INDEXFILE);
                 FilesManager.dataDimensions = indexFileMetaData.get(0);
                 totalBlocksInIndexFile = indexFileMetaData.get(2);
                 totalLevelsOfTreeIndex = indexFileMetaData.get(3);
+                Node.setMaxEntriesInNode(indexFileMetaData.size() > 4 ? indexFileMetaData.get(4) : LEGACY_MAX_ENTRIES_IN_NODE);
+                if (isLegacyFile(PATH_TO_INDEXFILE))
+                    migrateLegacyIndexFile();
             } else {
-                Files.deleteIfExists(Paths.get(PATH_TO_INDEXFILE));
+                indexBuffer.clear();
+                deleteFile(PATH_TO_INDEXFILE);
                 FilesManager.dataDimensions = dataDimensions;
+                // A requested fan-out is limited to the one of the block size, so overflowing nodes can be written
+                if (requestedMaxEntriesInNode > 0)
+                    Node.setMaxEntriesInNode(Math.min(requestedMaxEntriesInNode, Node.calculateMaxEntriesInNode(BLOCK_SIZE, dataDimensions)));
+                else
+                    Node.setMaxEntriesInNode(Node.calculateMaxEntriesInNode(BLOCK_SIZE, dataDimensions));
                 totalLevelsOfTreeIndex = 1;
                 totalBlocksInIndexFile = 1;
                 updateMetaDataBlock(PATH_TO_INDEXFILE);
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            commitBatch();
         }
     }
 
+    // Changes the maximum amount of index nodes kept in memory and the replacement policy of the index buffer.
+    // The modified nodes of the current buffer are written to the indexfile first
+    static void configureIndexBuffer(int maxPages, IndexBufferPool.ReplacementPolicy policy) {
+        if (indexBuffer.size() > 0)
+            flushIndexBufferToDisk();
+        indexBuffer = new IndexBufferPool(maxPages, policy, FilesManager::writeIndexFileBlockToDisk);
+    }
+
+    // Used by the index buffer to write back the modified nodes it evicts
+    private static void writeIndexFileBlockToDisk(long blockId, Node node) throws IOException {
+        writeBlock(PATH_TO_INDEXFILE, blockId, BlockFormat.encodeIndexBlock(node, dataDimensions, BLOCK_SIZE));
+    }
+
+    private static void putInIndexBuffer(Node node, boolean dirty) {
+        if (dirty && offHeapNodeCache != null)
+            offHeapNodeCache.invalidate(node.getNodeBlockId());
+        try {
+            indexBuffer.put(node, dirty);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Sets the fan-out of the nodes for the index files created from now on, instead of deriving it from the
+    // block size. It is stored in the metadata of the index file, so existing index files keep their own fan-out
+    static void setRequestedMaxEntriesInNode(int maxEntriesInNode) {
+        FilesManager.requestedMaxEntriesInNode = maxEntriesInNode;
+    }
+
     static void writeNewIndexFileBlock(Node node) {
-        indexBuffer.put(node.getNodeBlockId(), node);
+        putInIndexBuffer(node, true);
         totalBlocksInIndexFile++;
         updateMetaDataBlock(PATH_TO_INDEXFILE);
     }
 
     static void updateIndexFileBlock(Node node, int totalLevelsOfTreeIndex) {
-        indexBuffer.put(node.getNodeBlockId(), node);
+        putInIndexBuffer(node, true);
         FilesManager.totalLevelsOfTreeIndex = totalLevelsOfTreeIndex;
     }
 
-    static Node readIndexFileBlock(long blockId) {
-        if (indexBuffer.containsKey(blockId)) return indexBuffer.get(blockId);
+    // Reads the node of the block in the packed form used by the queries. A node kept in the index buffer may have
+    // changes not written to the indexfile yet, so it is packed from the buffer, otherwise the block is decoded
+    // directly without creating a Node, or kept in the off-heap node cache when it is used
+    static PackedNode readPackedIndexFileBlock(long blockId) {
+        Node bufferedNode = indexBuffer.get(blockId);
+        if (bufferedNode != null) return PackedNode.fromNode(bufferedNode);
+        PackedNode cachedNode = offHeapNodeCache == null ? null : offHeapNodeCache.get(blockId);
+        if (cachedNode != null) return cachedNode;
         try {
-            RandomAccessFile raf = new RandomAccessFile(new File(PATH_TO_INDEXFILE), "r");
-            raf.seek(blockId * BLOCK_SIZE);
-            byte[] block = new byte[BLOCK_SIZE];
-            if (raf.read(block) != BLOCK_SIZE) throw new IOException();
-
-            ByteArrayInputStream bais = new ByteArrayInputStream(block);
-
-            byte[] bytesLength = new byte[4];
-            if (bais.read(bytesLength) != 4) throw new IOException("Unable to read bytes length");
-            int nodeDataLength = ByteBuffer.wrap(bytesLength).getInt();
-
-            byte[] nodeBytes = new byte[nodeDataLength];
-            if (bais.read(nodeBytes) != nodeDataLength) throw new IOException("Unable to read full node data");
-
-            ObjectInputStream nodeObjInStream = new ObjectInputStream(new ByteArrayInputStream(nodeBytes));
-            return (Node) nodeObjInStream.readObject();
+            ByteBuffer block = readBlockBuffer(PATH_TO_INDEXFILE, blockId);
+            if (!BlockFormat.isBinaryBlock(block)) {
+                Node node = readIndexFileBlock(blockId);
+                return node == null ? null : PackedNode.fromNode(node);
+            }
+            cachedNode = offHeapNodeCache == null ? null : offHeapNodeCache.put(blockId, block);
+            if (cachedNode != null) return cachedNode;
+            return BlockFormat.decodePackedIndexBlock(block, blockId);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
+    static Node readIndexFileBlock(long blockId) {
+        Node bufferedNode = indexBuffer.get(blockId);
+        if (bufferedNode != null) return bufferedNode;
+        try {
+            ByteBuffer block = readBlockBuffer(PATH_TO_INDEXFILE, blockId);
+            Node node;
+            if (!BlockFormat.isBinaryBlock(block))
+                node = LegacyBlockReader.readIndexBlock(toByteArray(block));
+            else
+                node = BlockFormat.decodeIndexBlock(block, blockId);
+            if (node != null)
+                indexBuffer.put(node, false);
+            return node;
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    // Reads the node and pins it in the index buffer, so the same node object is kept in memory
+    // (and returned by readIndexFileBlock) until it is unpinned
+    static Node pinIndexFileBlock(long blockId) {
+        Node node = readIndexFileBlock(blockId);
+        if (node != null)
+            indexBuffer.pin(blockId);
+        return node;
+    }
 
-    static void flushIndexBufferToDisk() {
-        try (RandomAccessFile accessFile = new RandomAccessFile(PATH_TO_INDEXFILE, "rw")) {
-            for (Map.Entry<Long, Node> entry : indexBuffer.entrySet()) {
-                long entryKey = entry.getKey();
-                Node node = entry.getValue();
-                byte[] nodeInBytes = serialize(node);
-                byte[] bytesLength = ByteBuffer.allocate(4).putInt(nodeInBytes.length).array();
-                byte[] block = new byte[BLOCK_SIZE];
-                System.arraycopy(bytesLength, 0, block, 0, 4);
-                System.arraycopy(nodeInBytes, 0, block, 4, nodeInBytes.length);
-
-                // Μετακίνηση στο σωστό offset
-                long offset = entryKey * BLOCK_SIZE;
-                accessFile.seek(offset);
-                accessFile.write(block);
-            }
+    static void unpinIndexFileBlock(long blockId) {
+        indexBuffer.unpin(blockId);
+    }
 
+    // Rewrites every node of an indexfile written with Java object serialization using the binary block format
+    private static void migrateLegacyIndexFile() throws IOException, ClassNotFoundException {
+        System.out.println("Migrating legacy indexfile to the binary block format...");
+        long totalBlocks = Files.size(Paths.get(PATH_TO_INDEXFILE)) / BLOCK_SIZE;
+        for (long blockId = 1; blockId < totalBlocks; blockId++) {
+            byte[] block = readBlock(PATH_TO_INDEXFILE, blockId);
+            if (BlockFormat.isBinaryBlock(ByteBuffer.wrap(block)))
+                continue;
+            Node node = LegacyBlockReader.readIndexBlock(block);
+            if (node != null)
+                writeBlock(PATH_TO_INDEXFILE, blockId, BlockFormat.encodeIndexBlock(node, dataDimensions, BLOCK_SIZE));
+        }
+        updateMetaDataBlock(PATH_TO_INDEXFILE);
+    }
+
+
+    // Writes the modified nodes of the index buffer to the indexfile. The nodes stay in the buffer, so the
+    // frequently used upper levels of the tree do not have to be read again
+    static void flushIndexBufferToDisk() {
+        beginBatch();
+        try {
+            indexBuffer.flush(FilesManager::writeIndexFileBlockToDisk);
             updateMetaDataBlock(PATH_TO_INDEXFILE);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            commitBatch();
         }
-        indexBuffer.clear();
     }
 
 
@@ -298,51 +607,100 @@ class FilesManager {
         updateMetaDataBlock(PATH_TO_INDEXFILE);
     }
 
-    static boolean deleteRecordFromDataBlock(Record record) {
+    // Builds the record index again from the records of the whole datafile
+    private static void rebuildRecordIndex() throws IOException {
+        System.out.println("Building the record index of the datafile...");
+        recordIndex = RecordIndex.build(PATH_TO_RECORD_INDEX, dataDimensions, BLOCK_SIZE, totalBlocksInDataFile);
+    }
+
+    // Returns the ID of the datafile block holding the record, found through the record index,
+    // or RecordIndex.NOT_FOUND if there is no record with this ID
+    static long findDataFileBlockOfRecord(long recordId) {
         try {
-            for (long blockId = 1; blockId < totalBlocksInDataFile; blockId++) {
-                ArrayList<Record> records = readDataFileBlock(blockId);
-                if (records != null && records.removeIf(r -> r.getRecordID() == record.getRecordID())) {
-                    overwriteDataFileBlock(blockId, records);
-                    return true;
-                }
-            }
+            return recordIndex.get(recordId);
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return false;
+        return RecordIndex.NOT_FOUND;
     }
 
-    private static void overwriteDataFileBlock(long blockId, ArrayList<Record> records) throws IOException {
-        byte[] recordSerialized = serialize(records);
-        byte[] metaDataLengthSerialized = serialize(recordSerialized.length);
-        byte[] block = new byte[BLOCK_SIZE];
+    // Returns the record with the given ID or null if there is no such record
+    static Record readRecord(long recordId) {
+        long blockId = findDataFileBlockOfRecord(recordId);
+        if (blockId == RecordIndex.NOT_FOUND)
+            return null;
+        DataBlockView block = readDataFileBlockView(blockId);
+        if (block != null) {
+            for (int slot = 0; slot < block.getTotalRecords(); slot++) {
+                if (block.getRecordID(slot) == recordId)
+                    return block.getRecord(slot);
+            }
+        }
+        return null;
+    }
 
-        if (metaDataLengthSerialized.length + recordSerialized.length > BLOCK_SIZE)
-            throw new IllegalStateException("Block too large to overwrite");
+    // Free bytes left in the datafile block for more records
+    static int getFreeBytesInDataFileBlock(long blockId) {
+        return freeSpaceMap.getFreeBytes(blockId);
+    }
 
-        System.arraycopy(metaDataLengthSerialized, 0, block, 0, metaDataLengthSerialized.length);
-        System.arraycopy(recordSerialized, 0, block, metaDataLengthSerialized.length, recordSerialized.length);
+    // Adds the record to an existing datafile block, returning false if it does not fit in the block
+    static boolean insertRecordInDataFileBlock(long blockId, Record record) {
+        ArrayList<Record> newRecords = new ArrayList<>();
+        newRecords.add(record);
+        return insertRecordsInDataFileBlock(blockId, newRecords);
+    }
 
-        try (RandomAccessFile accessFile = new RandomAccessFile(PATH_TO_DATAFILE, "rw")) {
-            accessFile.seek(blockId * BLOCK_SIZE);
-            accessFile.write(block);
+    // Adds the records to an existing datafile block with one write of the block, returning false (and adding
+    // none of them) if they do not all fit in the block
+    static boolean insertRecordsInDataFileBlock(long blockId, ArrayList<Record> newRecords) {
+        try {
+            int newBytes = 0;
+            for (Record record : newRecords)
+                newBytes += BlockFormat.getRecordSize(record, dataDimensions);
+            if (newBytes > getFreeBytesInDataFileBlock(blockId))
+                return false;
+            ArrayList<Record> records = readDataFileBlock(blockId);
+            if (records == null)
+                return false;
+            records.addAll(newRecords);
+            if (!overwriteDataFileBlock(blockId, records))
+                return false;
+            for (Record record : newRecords)
+                recordIndex.put(record.getRecordID(), blockId);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
         }
+        return false;
     }
 
-    public static Map<Node, Integer> writeNewIndexFileBlocks(List<Node> nodes) {
-        Map<Node, Integer> result = new HashMap<>();
-
-        for (Node node : nodes) {
-            long nextIndexBlockId = getNextIndexBlockId();
-            node.setNodeBlockId((int) nextIndexBlockId);
-            indexBuffer.put(nextIndexBlockId, node);
-            result.put(node,(int) nextIndexBlockId);
+    static boolean deleteRecordFromDataBlock(Record record) {
+        try {
+            long blockId = recordIndex.get(record.getRecordID());
+            if (blockId == RecordIndex.NOT_FOUND)
+                return false;
+            ArrayList<Record> records = readDataFileBlock(blockId);
+            boolean removed = records != null && records.removeIf(r -> r.getRecordID() == record.getRecordID());
+            if (removed && !overwriteDataFileBlock(blockId, records))
+                throw new IllegalStateException("The remaining records of block " + blockId + " do not fit in it");
+            recordIndex.remove(record.getRecordID());
+            return removed;
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-        return result;
+        return false;
     }
 
-    public static long getNextIndexBlockId() {
-        return ++nextAvailableIndexBlockId;
+    // Writes the records over the datafile block, returning false (without changing the block) if they do not fit
+    private static boolean overwriteDataFileBlock(long blockId, ArrayList<Record> records) throws IOException {
+        byte[] block = encodeDataFileBlock(records);
+        if (block == null)
+            return false;
+        dataBlockCache.invalidate(blockId);
+        writeBlock(PATH_TO_DATAFILE, blockId, block);
+        if (freeSpaceMap != null)
+            freeSpaceMap.setUsedBytes((int) blockId, BlockFormat.getDataBlockUsedBytes(block));
+        return true;
     }
 }
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+// Keeps the bytes used by every block of the datafile, so records can be inserted into blocks that still have
+// room and the blocks left without records can be used again instead of growing the datafile.
+// It is stored in its own file: block 0 keeps the metadata [dimensions, block size, datafile blocks] and the
+// following pages the used bytes of the datafile blocks in order. The list of the empty blocks is derived from
+// the used bytes when the map is opened
+class FreeSpaceMap {
+    private final String pathToFile;
+    private final int dimensions;
+    private final int blockSize;
+    private final int entriesPerPage;
+    private int[] usedBytes; // Used bytes of each datafile block, indexed by the block ID
+    private int dataFileBlocks;
+    private final TreeSet<Integer> emptyBlocks = new TreeSet<>(); // Datafile blocks without records, lowest first
+
+    private FreeSpaceMap(String pathToFile, int dimensions, int blockSize, int dataFileBlocks) {
+        this.pathToFile = pathToFile;
+        this.dimensions = dimensions;
+        this.blockSize = blockSize;
+        this.entriesPerPage = BlockFormat.getMaxFreeSpaceEntries(blockSize);
+        this.usedBytes = new int[Math.max(16, dataFileBlocks)];
+        this.dataFileBlocks = dataFileBlocks;
+        if (dataFileBlocks > 0)
+            usedBytes[0] = blockSize; // The metadata block is never used for records
+    }
+
+    // Opens the free space map of a datafile with the given amount of blocks, returning null if the file
+    // does not exist, cannot be used or was not updated with the datafile
+    static FreeSpaceMap open(String pathToFile, int dimensions, int blockSize, int dataFileBlocks) {
+        if (!Files.exists(Paths.get(pathToFile)))
+            return null;
+        try {
+            ArrayList<Integer> metaData = BlockFormat.decodeMetaData(ByteBuffer.wrap(FilesManager.readBlock(pathToFile, 0)));
+            if (metaData.size() < 3 || metaData.get(0) != dimensions || metaData.get(1) != blockSize || metaData.get(2) != dataFileBlocks)
+                return null;
+            FreeSpaceMap freeSpaceMap = new FreeSpaceMap(pathToFile, dimensions, blockSize, dataFileBlocks);
+            for (int firstBlockId = 0; firstBlockId < dataFileBlocks; firstBlockId += freeSpaceMap.entriesPerPage) {
+                ByteBuffer page = ByteBuffer.wrap(FilesManager.readBlock(pathToFile, freeSpaceMap.getPageId(firstBlockId)));
+                BlockFormat.decodeFreeSpacePage(page, freeSpaceMap.usedBytes, firstBlockId);
+            }
+            freeSpaceMap.findEmptyBlocks();
+            return freeSpaceMap;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Builds the free space map reading the header of every block of the datafile
+    static FreeSpaceMap build(String pathToFile, int dimensions, int blockSize, int dataFileBlocks) throws IOException {
+        FreeSpaceMap freeSpaceMap = new FreeSpaceMap(pathToFile, dimensions, blockSize, dataFileBlocks);
+        for (int blockId = 1; blockId < dataFileBlocks; blockId++) {
+            DataBlockView block = FilesManager.readDataFileBlockView(blockId);
+            freeSpaceMap.usedBytes[blockId] = block == null ? blockSize : block.getUsedBytes();
+        }
+        freeSpaceMap.findEmptyBlocks();
+
+        FilesManager.deleteFile(pathToFile);
+        freeSpaceMap.writeMetaData();
+        for (int firstBlockId = 0; firstBlockId < dataFileBlocks; firstBlockId += freeSpaceMap.entriesPerPage)
+            freeSpaceMap.writePage(firstBlockId);
+        return freeSpaceMap;
+    }
+
+    private void findEmptyBlocks() {
+        emptyBlocks.clear();
+        for (int blockId = 1; blockId < dataFileBlocks; blockId++) {
+            if (usedBytes[blockId] <= BlockFormat.DATA_HEADER_SIZE)
+                emptyBlocks.add(blockId);
+        }
+    }
+
+    private long getPageId(int blockId) {
+        return 1 + blockId / entriesPerPage;
+    }
+
+    private void writePage(int blockId) throws IOException {
+        int firstBlockId = blockId - blockId % entriesPerPage;
+        FilesManager.writeBlock(pathToFile, getPageId(firstBlockId), BlockFormat.encodeFreeSpacePage(usedBytes, firstBlockId, dimensions, blockSize));
+    }
+
+    private void writeMetaData() throws IOException {
+        ArrayList<Integer> metaData = new ArrayList<>();
+        metaData.add(dimensions);
+        metaData.add(blockSize);
+        metaData.add(dataFileBlocks);
+        FilesManager.writeBlock(pathToFile, 0, BlockFormat.encodeMetaData(metaData, blockSize));
+    }
+
+    // Records the bytes used by a datafile block after it was written, adding the block to the map
+    // if it was appended to the datafile
+    void setUsedBytes(int blockId, int blockUsedBytes) throws IOException {
+        if (blockId >= usedBytes.length)
+            usedBytes = Arrays.copyOf(usedBytes, Math.max(blockId + 1, 2 * usedBytes.length));
+        usedBytes[blockId] = blockUsedBytes;
+        if (blockUsedBytes <= BlockFormat.DATA_HEADER_SIZE)
+            emptyBlocks.add(blockId);
+        else
+            emptyBlocks.remove(blockId);
+        writePage(blockId);
+        if (blockId >= dataFileBlocks) {
+            dataFileBlocks = blockId + 1;
+            writeMetaData();
+        }
+    }
+
+    int getFreeBytes(long blockId) {
+        return blockId < dataFileBlocks ? blockSize - usedBytes[(int) blockId] : 0;
+    }
+
+    // Returns the lowest datafile block without records, or -1 if every block has records
+    int findEmptyBlock() {
+        return emptyBlocks.isEmpty() ? -1 : emptyBlocks.first();
+    }
+
+    int getTotalEmptyBlocks() {
+        return emptyBlocks.size();
+    }
+}
@@ -0,0 +1,67 @@
+// Keys of the points along the N-dimensional Hilbert curve, used to pack the R*-tree in Hilbert order. Points
+// close on the curve are close in space, so sorting the records by their keys keeps neighbours together. The
+// coordinates are scaled to the bounds of the data and quantized to the bits of every dimension (up to 63 bits of
+// key in total), and the key is computed with Skilling's transposition of the coordinates ("Programming the
+// Hilbert curve", 2004), without tables, for any number of dimensions
+class HilbertCurve {
+    private static final int MAX_KEY_BITS = 63;
+    private static final int MAX_BITS_PER_DIMENSION = 31;
+
+    private final double[] min;
+    private final double[] scale; // Cells per unit of every dimension
+    private final int bitsPerDimension;
+
+    // A curve covering the bounds [min, max] of every dimension
+    HilbertCurve(double[] min, double[] max) {
+        if (min.length > MAX_KEY_BITS)
+            throw new IllegalArgumentException("The Hilbert keys support up to " + MAX_KEY_BITS + " dimensions");
+        this.min = min.clone();
+        this.bitsPerDimension = Math.min(MAX_BITS_PER_DIMENSION, MAX_KEY_BITS / min.length);
+        this.scale = new double[min.length];
+        long maxCell = (1L << bitsPerDimension) - 1;
+        for (int d = 0; d < min.length; d++)
+            scale[d] = max[d] > min[d] ? maxCell / (max[d] - min[d]) : 0;
+    }
+
+    // Key of the point, which must be inside the bounds of the curve
+    long getKey(double[] point) {
+        long[] cells = new long[point.length];
+        long maxCell = (1L << bitsPerDimension) - 1;
+        for (int d = 0; d < point.length; d++)
+            cells[d] = Math.max(0, Math.min(maxCell, (long) ((point[d] - min[d]) * scale[d])));
+        return getKey(cells, bitsPerDimension);
+    }
+
+    // Key of the cell with the given coordinates (each of the given bits) along the curve. The cell coordinates
+    // are transposed in place into the key, whose bits are then read dimension after dimension from the top bit
+    static long getKey(long[] cells, int bits) {
+        int dimensions = cells.length;
+        long topBit = 1L << (bits - 1);
+        for (long q = topBit; q > 1; q >>= 1) {
+            long lowerBits = q - 1;
+            for (int d = 0; d < dimensions; d++) {
+                if ((cells[d] & q) != 0) {
+                    cells[0] ^= lowerBits; // Invert
+                } else {
+                    long exchanged = (cells[0] ^ cells[d]) & lowerBits; // Exchange
+                    cells[0] ^= exchanged;
+                    cells[d] ^= exchanged;
+                }
+            }
+        }
+        // Gray encode
+        for (int d = 1; d < dimensions; d++)
+            cells[d] ^= cells[d - 1];
+        long flips = 0;
+        for (long q = topBit; q > 1; q >>= 1) {
+            if ((cells[dimensions - 1] & q) != 0)
+                flips ^= q - 1;
+        }
+        long key = 0;
+        for (int bit = bits - 1; bit >= 0; bit--) {
+            for (int d = 0; d < dimensions; d++)
+                key = (key << 1) | ((cells[d] ^ flips) >>> bit & 1);
+        }
+        return key;
+    }
+}
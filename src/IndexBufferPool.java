@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+// Buffer manager keeping up to a fixed number of index nodes (pages) in memory.
+// Pages can be pinned while a caller keeps working on their node, so they are not evicted under it.
+// Modified (dirty) pages are written back to the indexfile when they are evicted or when the pool is flushed.
+// The page to evict is chosen either by LRU or by the CLOCK (second chance) algorithm
+class IndexBufferPool {
+    enum ReplacementPolicy { LRU, CLOCK }
+
+    // Writes the node of a dirty page to the given block of the indexfile
+    interface PageWriter {
+        void writePage(long blockId, Node node) throws IOException;
+    }
+
+    private static class Frame {
+        private final long blockId; // The page's block, which stays the same even if its node gets a new block ID
+        private final int clockSlot;
+        private Node node;
+        private int pinCount;
+        private boolean dirty;
+        private boolean referenced; // Reference bit used by the CLOCK algorithm
+
+        Frame(long blockId, Node node, int clockSlot) {
+            this.blockId = blockId;
+            this.node = node;
+            this.clockSlot = clockSlot;
+        }
+    }
+
+    private final int capacity; // Maximum amount of pages kept in memory
+    private final ReplacementPolicy policy;
+    private final PageWriter evictionWriter;
+    private final LinkedHashMap<Long, Frame> frames; // Kept in access order when using LRU
+    private final Frame[] clock; // Circular list of frames used by the CLOCK algorithm
+    private int clockHand;
+
+    IndexBufferPool(int capacity, ReplacementPolicy policy, PageWriter evictionWriter) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The index buffer must hold at least one page");
+        this.capacity = capacity;
+        this.policy = policy;
+        this.evictionWriter = evictionWriter;
+        this.frames = new LinkedHashMap<>(16, 0.75f, policy == ReplacementPolicy.LRU);
+        this.clock = policy == ReplacementPolicy.CLOCK ? new Frame[capacity] : null;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    int size() {
+        return frames.size();
+    }
+
+    boolean contains(long blockId) {
+        return frames.containsKey(blockId);
+    }
+
+    // Returns the node of the page if it is in the buffer, otherwise null
+    Node get(long blockId) {
+        Frame frame = frames.get(blockId);
+        if (frame == null)
+            return null;
+        frame.referenced = true;
+        return frame.node;
+    }
+
+    // Adds the node to the buffer or replaces the node kept for its block, evicting a page if the buffer is full.
+    // A page stays dirty until it is written back, even if it is replaced by a clean node
+    void put(Node node, boolean dirty) throws IOException {
+        long blockId = node.getNodeBlockId();
+        Frame frame = frames.get(blockId);
+        if (frame == null) {
+            int clockSlot = frames.size() < capacity ? frames.size() : evict();
+            frame = new Frame(blockId, node, clockSlot);
+            frames.put(blockId, frame);
+            if (clock != null)
+                clock[clockSlot] = frame;
+        }
+        frame.node = node;
+        frame.dirty |= dirty;
+        frame.referenced = true;
+    }
+
+    // Pinned pages are never evicted, until they are unpinned as many times as they were pinned
+    void pin(long blockId) {
+        Frame frame = frames.get(blockId);
+        if (frame == null)
+            throw new IllegalStateException("Cannot pin block " + blockId + " which is not in the index buffer");
+        frame.pinCount++;
+    }
+
+    void unpin(long blockId) {
+        Frame frame = frames.get(blockId);
+        if (frame == null || frame.pinCount == 0)
+            throw new IllegalStateException("Block " + blockId + " is not pinned in the index buffer");
+        frame.pinCount--;
+    }
+
+    // Removes a page from the buffer and returns the slot of the clock it occupied
+    private int evict() throws IOException {
+        Frame victim = policy == ReplacementPolicy.LRU ? findLeastRecentlyUsed() : findClockVictim();
+        if (victim.dirty)
+            evictionWriter.writePage(victim.blockId, victim.node);
+        frames.remove(victim.blockId);
+        return victim.clockSlot;
+    }
+
+    private Frame findLeastRecentlyUsed() {
+        for (Frame frame : frames.values()) {
+            if (frame.pinCount == 0)
+                return frame;
+        }
+        throw new IllegalStateException("All " + capacity + " pages of the index buffer are pinned");
+    }
+
+    // Sweeps the clock giving a second chance to the recently referenced pages. Two full rounds are enough to
+    // find a victim, unless every page is pinned
+    private Frame findClockVictim() {
+        for (int i = 0; i < 2 * capacity; i++) {
+            Frame frame = clock[clockHand];
+            clockHand = (clockHand + 1) % capacity;
+            if (frame.pinCount > 0)
+                continue;
+            if (frame.referenced)
+                frame.referenced = false;
+            else
+                return frame;
+        }
+        throw new IllegalStateException("All " + capacity + " pages of the index buffer are pinned");
+    }
+
+    boolean hasDirtyPages() {
+        for (Frame frame : frames.values()) {
+            if (frame.dirty)
+                return true;
+        }
+        return false;
+    }
+
+    // Writes all the dirty pages with the given writer, keeping them in the buffer as clean pages
+    void flush(PageWriter writer) throws IOException {
+        for (Frame frame : frames.values()) {
+            if (frame.dirty) {
+                writer.writePage(frame.blockId, frame.node);
+                frame.dirty = false;
+            }
+        }
+    }
+
+    // Drops every page of the buffer without writing them back
+    void clear() {
+        frames.clear();
+        if (clock != null)
+            Arrays.fill(clock, null);
+        clockHand = 0;
+    }
+}
@@ -3,7 +3,8 @@
 public class LeafEntry extends Entry {
     private long datafileBlockId; // points to the corresponding block in the datafile
     public LeafEntry(long datafileBlockId, BoundingBox boundingBox) {
-        super(boundingBox);  // sets bounding box BlockId = datafileBlockId;
+        super(boundingBox);  // sets bounding box
+        this.datafileBlockId = datafileBlockId;
         this.setChildNodeBlockId(datafileBlockId);
     }
 
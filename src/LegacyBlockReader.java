@@ -0,0 +1,71 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+
+// Reads the blocks written by the older versions of FilesManager, which stored every block using Java object
+// serialization. It is only used for opening existing datafiles and indexfiles so they can be migrated to the
+// binary block format of BlockFormat
+class LegacyBlockReader {
+
+    // Metadata and data blocks start with the serialized length of their content, followed by the serialized content
+    private static Object readLengthPrefixedObject(byte[] block) throws IOException, ClassNotFoundException {
+        ByteArrayInputStream byteInputStream = new ByteArrayInputStream(block);
+        ObjectInputStream objInputStream = new CompatibleObjectInputStream(byteInputStream);
+        int contentLength = (Integer) objInputStream.readObject();
+        byte[] contentBytes = new byte[contentLength];
+        if (byteInputStream.read(contentBytes) != contentLength)
+            throw new IOException("Could not read the full block content");
+        return new CompatibleObjectInputStream(new ByteArrayInputStream(contentBytes)).readObject();
+    }
+
+    @SuppressWarnings("unchecked")
+    static ArrayList<Integer> readMetaData(byte[] block) throws IOException, ClassNotFoundException {
+        return (ArrayList<Integer>) readLengthPrefixedObject(block);
+    }
+
+    @SuppressWarnings("unchecked")
+    static ArrayList<Record> readDataBlock(byte[] block) throws IOException, ClassNotFoundException {
+        return (ArrayList<Record>) readLengthPrefixedObject(block);
+    }
+
+    // Index blocks start with the length of the serialized node as a plain int
+    // Returns null for blocks that were never written
+    static Node readIndexBlock(byte[] block) throws IOException, ClassNotFoundException {
+        int nodeDataLength = ByteBuffer.wrap(block).getInt();
+        if (nodeDataLength == 0)
+            return null;
+        if (nodeDataLength < 0 || nodeDataLength > block.length - Integer.BYTES)
+            throw new IOException("Invalid node data length: " + nodeDataLength);
+        ObjectInputStream nodeObjInStream = new CompatibleObjectInputStream(new ByteArrayInputStream(block, Integer.BYTES, nodeDataLength));
+        return (Node) nodeObjInStream.readObject();
+    }
+
+    // Classes that were renamed since the first versions of the project (old name -> current name)
+    private static final Map<String, String> RENAMED_CLASSES = Map.of("MBR", "BoundingBox");
+
+    // Object stream that accepts objects serialized by older builds of the project, whose classes had a different
+    // serialVersionUID or name. The fields are read using the current class descriptor, so the serialized form of
+    // the classes must be kept the same
+    private static class CompatibleObjectInputStream extends ObjectInputStream {
+        CompatibleObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass streamDescriptor = super.readClassDescriptor();
+            String className = RENAMED_CLASSES.getOrDefault(streamDescriptor.getName(), streamDescriptor.getName());
+            ObjectStreamClass localDescriptor;
+            try {
+                localDescriptor = ObjectStreamClass.lookup(Class.forName(className));
+            } catch (ClassNotFoundException e) {
+                return streamDescriptor;
+            }
+            if (localDescriptor != null && (!className.equals(streamDescriptor.getName())
+                    || localDescriptor.getSerialVersionUID() != streamDescriptor.getSerialVersionUID()))
+                return localDescriptor;
+            return streamDescriptor;
+        }
+    }
+}
@@ -56,6 +56,15 @@ public class Main {
                 System.out.println();
                 if (answer.equals("y")) {
                     doBulkLoad = true;
+                    System.out.println("Pack the R*Tree with Sort-Tile-Recursive or with the Hilbert curve? (str/hilbert): ");
+                    while (true) {
+                        answer = scanner.nextLine().trim().toLowerCase();
+                        System.out.println();
+                        if (answer.equals("str") || answer.equals("hilbert"))
+                            break;
+                        System.out.println("Please answer with str/hilbert: ");
+                    }
+                    RStarTree.setBulkLoadMethod(answer.equals("hilbert") ? RStarTree.BulkLoadMethod.HILBERT : RStarTree.BulkLoadMethod.SORT_TILE_RECURSIVE);
                     break;
                 } else if (answer.equals("n")) {
                     doBulkLoad = false;
@@ -82,9 +91,13 @@ public class Main {
         System.out.println("Index Metadata: [Dimensions: " + indexMetaData.getFirst() +
                 ", Block Size: " + indexMetaData.get(1) +
                 ", Total Blocks in File: " + indexMetaData.get(2)+
-                ", Total Tree Levels: " + indexMetaData.get(3)+"]");
+                ", Total Tree Levels: " + indexMetaData.get(3)+
+                ", Max Entries in Node: " + indexMetaData.get(4)+"]");
         System.out.println();
 
+        // The files are only read while running queries, so their blocks are accessed through memory-mapped files
+        FilesManager.setMemoryMappedReads(true);
+
         String selection;
         do {
             System.out.println("Select the query you would like to execute: \n" +
@@ -0,0 +1,46 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+// Read-only memory mapping of a datafile or indexfile, giving access to its blocks without copying them.
+// The file is mapped in chunks (a single mapping cannot exceed 2GB) and a chunk is mapped again
+// when the file grows past the end of its current mapping
+class MappedBlockFile {
+    private static final int BLOCKS_PER_CHUNK = 16 * 1024;
+    private final Path path;
+    private final int blockSize;
+    private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+
+    MappedBlockFile(Path path, int blockSize) {
+        this.path = path;
+        this.blockSize = blockSize;
+    }
+
+    // Returns a read-only slice of the mapped file containing the block with the given ID
+    ByteBuffer getBlock(long blockId) throws IOException {
+        int chunkIndex = (int) (blockId / BLOCKS_PER_CHUNK);
+        int offsetInChunk = (int) (blockId % BLOCKS_PER_CHUNK) * blockSize;
+        MappedByteBuffer chunk = chunkIndex < chunks.size() ? chunks.get(chunkIndex) : null;
+        if (chunk == null || chunk.capacity() < offsetInChunk + blockSize)
+            chunk = mapChunk(chunkIndex, offsetInChunk + blockSize);
+        return chunk.slice(offsetInChunk, blockSize).asReadOnlyBuffer();
+    }
+
+    private MappedByteBuffer mapChunk(int chunkIndex, int minimumLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long chunkStart = (long) chunkIndex * BLOCKS_PER_CHUNK * blockSize;
+            long length = Math.min((long) BLOCKS_PER_CHUNK * blockSize, channel.size() - chunkStart);
+            if (length < minimumLength)
+                throw new IOException("Block out of the bounds of " + path);
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, length);
+            while (chunks.size() <= chunkIndex)
+                chunks.add(null);
+            chunks.set(chunkIndex, chunk);
+            return chunk;
+        }
+    }
+}
@@ -3,8 +3,9 @@ import java.util.ArrayList;
 
 // Class representing a Node of the RStarTree
 class Node implements Serializable {
-    private static final int MAX_ENTRIES = 4; // Maximum amount of entries inside a node (M)
-    private static final int MIN_ENTRIES = (int)(0.5 * MAX_ENTRIES); // Setting m to 50% of M (therefore 2<=entries<=4)
+    private static final double MIN_ENTRIES_RATIO = 0.5; // Setting m to 50% of M
+    private static int maxEntries = 4; // Maximum amount of entries inside a node (M), set for each index file
+    private static int minEntries = (int)(MIN_ENTRIES_RATIO * maxEntries); // Minimum amount of entries inside a node (m)
     private int level; // In which level the node is positioned
     private long blockId; // The unique ID of the file block that this Node points to
     private ArrayList<Entry> entries; // List keeping track if a node's entries
@@ -23,10 +24,24 @@ class Node implements Serializable {
     }
 
     static int getMaxEntriesInNode() {
-        return MAX_ENTRIES;
+        return maxEntries;
     }
 
-    static int getMinEntriesInNode() {return MIN_ENTRIES;}
+    static int getMinEntriesInNode() {return minEntries;}
+
+    // Sets M (and therefore m) for the nodes of the index
+    static void setMaxEntriesInNode(int maxEntries) {
+        if (maxEntries < 2)
+            throw new IllegalArgumentException("A node must be able to hold at least 2 entries");
+        Node.maxEntries = maxEntries;
+        Node.minEntries = (int)(MIN_ENTRIES_RATIO * maxEntries);
+    }
+
+    // The largest M for which an overflowing node (with M+1 entries, before it is split or its entries are
+    // reinserted) still fits in one index block, since the insertion writes the node before treating the overflow
+    static int calculateMaxEntriesInNode(int blockSize, int dimensions) {
+        return (blockSize - BlockFormat.INDEX_HEADER_SIZE) / BlockFormat.getIndexEntrySize(dimensions) - 1;
+    }
 
     void setNodeBlockId(int blockId) {
         this.blockId = blockId;
@@ -51,27 +66,7 @@ class Node implements Serializable {
     public BoundingBox getBoundingBox() {
         if (entries == null || entries.isEmpty()) return null;
 
-        ArrayList<Bounds> combinedBounds = new ArrayList<>();
-        int dimensions = FilesManager.getDataDimensions();
-
-        BoundingBox firstBoundingBox = entries.get(0).getBoundingBox();
-        for (int d = 0; d < dimensions; d++) {
-            double lower = firstBoundingBox.getBounds().get(d).getLower();
-            double upper = firstBoundingBox.getBounds().get(d).getUpper();
-            combinedBounds.add(new Bounds(lower, upper));
-        }
-
-        for (int i = 1; i < entries.size(); i++) {
-            BoundingBox current = entries.get(i).getBoundingBox();
-            for (int d = 0; d < dimensions; d++) {
-                Bounds existing = combinedBounds.get(d);
-                double lower = Math.min(existing.getLower(), current.getBounds().get(d).getLower());
-                double upper = Math.max(existing.getUpper(), current.getBounds().get(d).getUpper());
-                combinedBounds.set(d, new Bounds(lower, upper));
-            }
-        }
-
-        return new BoundingBox(combinedBounds);
+        return BoundingBox.findMinimumBoundingBox(entries);
     }
 
     void insertEntry(Entry entry)
@@ -110,18 +105,18 @@ class Node implements Serializable {
             ArrayList<Distribution>  distributions = new ArrayList<>();
             for (ArrayList<Entry> sortedEntryList: sortedEntries)
             {
-                for (int k = 1; k <= MAX_ENTRIES - 2* MIN_ENTRIES +2; k++)
+                for (int k = 1; k <= maxEntries - 2* minEntries +2; k++)
                 {
                     ArrayList<Entry> firstGroup = new ArrayList<>();
                     ArrayList<Entry> secondGroup = new ArrayList<>();
                     // The first group contains the first (m-l)+k entries, the second group contains the remaining entries
-                    for (int j = 0; j < (MIN_ENTRIES -1)+k; j++)
+                    for (int j = 0; j < (minEntries -1)+k; j++)
                         firstGroup.add(sortedEntryList.get(j));
-                    for (int j = (MIN_ENTRIES -1)+k; j < entries.size(); j++)
+                    for (int j = (minEntries -1)+k; j < entries.size(); j++)
                         secondGroup.add(sortedEntryList.get(j));
 
-                    BoundingBox bbFirstGroup = new BoundingBox(Bounds.findMinimumBounds(firstGroup));
-                    BoundingBox bbSecondGroup = new BoundingBox(Bounds.findMinimumBounds(secondGroup));
+                    BoundingBox bbFirstGroup = BoundingBox.findMinimumBoundingBox(firstGroup);
+                    BoundingBox bbSecondGroup = BoundingBox.findMinimumBoundingBox(secondGroup);
 
                     Distribution distribution = new Distribution(new DistributionGroup(firstGroup,bbFirstGroup), new DistributionGroup(secondGroup,bbSecondGroup));
                     distributions.add(distribution);
@@ -0,0 +1,189 @@
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+// Imports the nodes of an OSM XML file (.osm, .osm.gz or a .zip holding it) straight into a new datafile, and
+// optionally builds the R*-tree on it. Unlike OSMtoCSV it does not build the DOM of the whole file, and unlike
+// OSMtoCSV_SAX it does not write a CSV file that is parsed again: the file is read as a stream with StAX and every
+// node is written to the datafile at its end tag. Only the tags of the current element are kept in memory, and the
+// tag filter decides from them if the element is imported. The records keep the whole name of the element (the CSV
+// importers remove its commas) and their coordinates are lat, lon like the columns of the CSV file.
+// The ways and relations can be imported too, as records with an extent: the bounding box of the nodes of a way,
+// or of the node and way members of a relation (relation members are not followed). The OSM files list the nodes,
+// then the ways, then the relations, so the locations of all the nodes are kept in an OSMLocationStore until the
+// ways are read, and the bounding boxes of all the ways in another one until the relations are read. Members
+// missing from the file (outside the extract) are left out of the bounding box. The IDs of the ways and relations
+// are marked with WAY_ID_FLAG and RELATION_ID_FLAG, so they do not collide with the IDs of the nodes
+public class OSMImporter {
+
+    static final long WAY_ID_FLAG = 1L << 61;
+    static final long RELATION_ID_FLAG = 1L << 62;
+
+    // Decides from the tags of an element if it is imported
+    interface TagFilter {
+        boolean accept(Map<String, String> tags);
+    }
+
+    static final TagFilter ALL_NODES = tags -> true;
+    static final TagFilter NAMED_NODES = tags -> tags.containsKey("name");
+
+    // Elements having the tag with any of the values, or with any value if none is given (e.g. "amenity", "cafe", "bar")
+    static TagFilter withTag(String key, String... values) {
+        return tags -> {
+            String value = tags.get(key);
+            if (value == null)
+                return false;
+            if (values.length == 0)
+                return true;
+            for (String acceptedValue : values) {
+                if (acceptedValue.equals(value))
+                    return true;
+            }
+            return false;
+        };
+    }
+
+    public static void main(String[] args) {
+        // The OSM file, optionally the tag the elements must have ("name", a key, key=value or "all") and "ways" to
+        // import the ways and relations too
+        String inputFilePath = args.length > 0 ? args[0] : "src/resources/greece.osm";
+        TagFilter tagFilter = ALL_NODES;
+        if (args.length > 1 && args[1].equals("name"))
+            tagFilter = NAMED_NODES;
+        else if (args.length > 1 && !args[1].equals("all"))
+            tagFilter = args[1].contains("=") ? withTag(args[1].split("=", 2)[0], args[1].split("=", 2)[1]) : withTag(args[1]);
+        boolean withWaysAndRelations = args.length > 2 && args[2].equals("ways");
+
+        long startTime = System.nanoTime();
+        importFile(inputFilePath, tagFilter, withWaysAndRelations, true, false);
+        System.out.println("✅ OSM file imported in " + (System.nanoTime() - startTime) / 1000000.0 + "ms: " + inputFilePath);
+    }
+
+    // Replaces the datafile with the elements of the file accepted by the filter and, if asked, builds a new index on it
+    static void importFile(String pathToOsm, TagFilter tagFilter, boolean withWaysAndRelations, boolean buildIndex, boolean doBulkLoad) {
+        FilesManager.createDataFile(2, dataFileWriter -> {
+            long importedRecords = importElements(pathToOsm, tagFilter, withWaysAndRelations, dataFileWriter);
+            System.out.println("Imported " + importedRecords + (withWaysAndRelations ? " nodes, ways and relations" : " nodes") + " from " + pathToOsm);
+        });
+        if (buildIndex) {
+            FilesManager.initializeIndexFile(2, true);
+            new RStarTree(doBulkLoad);
+        }
+    }
+
+    // Streams the nodes, and if asked the ways and relations, of the file accepted by the filter to the bulk writer
+    // of the datafile and returns how many
+    static long importElements(String pathToOsm, TagFilter tagFilter, boolean withWaysAndRelations, DataFileBulkWriter dataFileWriter) throws IOException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        long importedRecords = 0;
+        try (InputStream input = openOsmFile(pathToOsm);
+             OSMLocationStore nodeLocations = withWaysAndRelations ? new OSMLocationStore("osm-nodes", 2) : null;
+             OSMLocationStore wayBounds = withWaysAndRelations ? new OSMLocationStore("osm-ways", 4) : null) {
+            XMLStreamReader reader = factory.createXMLStreamReader(input);
+            try {
+                Map<String, String> tags = new HashMap<>();
+                String element = null; // The node, way or relation being read
+                long elementId = 0;
+                String lat = null;
+                String lon = null;
+                double[] lower = new double[2]; // Bounding box of the members of the way or relation
+                double[] upper = new double[2];
+                boolean hasMembers = false;
+                double[] location = new double[4];
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("node") || (withWaysAndRelations && (name.equals("way") || name.equals("relation")))) {
+                            if (name.equals("node") && nodeLocations != null && nodeLocations.isFinished())
+                                throw new IllegalStateException("The nodes of the OSM file must come before its ways and relations");
+                            if (name.equals("way") && wayBounds.isFinished())
+                                throw new IllegalStateException("The ways of the OSM file must come before its relations");
+                            if (!name.equals("node"))
+                                nodeLocations.finish();
+                            if (name.equals("relation"))
+                                wayBounds.finish();
+                            element = name;
+                            elementId = Long.parseLong(reader.getAttributeValue(null, "id"));
+                            lat = reader.getAttributeValue(null, "lat");
+                            lon = reader.getAttributeValue(null, "lon");
+                            hasMembers = false;
+                            tags.clear();
+                        } else if (element != null && name.equals("tag")) {
+                            tags.put(reader.getAttributeValue(null, "k"), reader.getAttributeValue(null, "v"));
+                        } else if ("way".equals(element) && name.equals("nd")) {
+                            if (nodeLocations.find(Long.parseLong(reader.getAttributeValue(null, "ref")), location))
+                                hasMembers = addToBounds(lower, upper, hasMembers, location[0], location[1], location[0], location[1]);
+                        } else if ("relation".equals(element) && name.equals("member")) {
+                            String type = reader.getAttributeValue(null, "type");
+                            long ref = Long.parseLong(reader.getAttributeValue(null, "ref"));
+                            if (type.equals("node") && nodeLocations.find(ref, location))
+                                hasMembers = addToBounds(lower, upper, hasMembers, location[0], location[1], location[0], location[1]);
+                            else if (type.equals("way") && wayBounds.find(ref, location))
+                                hasMembers = addToBounds(lower, upper, hasMembers, location[0], location[1], location[2], location[3]);
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(element)) {
+                        String name = tags.getOrDefault("name", "");
+                        if (element.equals("node")) {
+                            // Nodes without coordinates (such as deleted nodes) are skipped
+                            if (lat != null && lon != null) {
+                                double[] coordinates = new double[]{Double.parseDouble(lat), Double.parseDouble(lon)};
+                                if (nodeLocations != null)
+                                    nodeLocations.add(elementId, coordinates);
+                                if (tagFilter.accept(tags)) {
+                                    dataFileWriter.addRecord(new Record(elementId, name, coordinates));
+                                    importedRecords++;
+                                }
+                            }
+                        } else if (hasMembers) {
+                            if (element.equals("way"))
+                                wayBounds.add(elementId, lower[0], lower[1], upper[0], upper[1]);
+                            if (tagFilter.accept(tags)) {
+                                long recordId = elementId | (element.equals("way") ? WAY_ID_FLAG : RELATION_ID_FLAG);
+                                dataFileWriter.addRecord(new Record(recordId, name, lower.clone(), upper.clone()));
+                                importedRecords++;
+                            }
+                        }
+                        element = null;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return importedRecords;
+    }
+
+    // Extends the bounding box [lower, upper] to include the box of a member, returning true as the box has members
+    private static boolean addToBounds(double[] lower, double[] upper, boolean hasMembers, double minLat, double minLon, double maxLat, double maxLon) {
+        lower[0] = hasMembers ? Math.min(lower[0], minLat) : minLat;
+        lower[1] = hasMembers ? Math.min(lower[1], minLon) : minLon;
+        upper[0] = hasMembers ? Math.max(upper[0], maxLat) : maxLat;
+        upper[1] = hasMembers ? Math.max(upper[1], maxLon) : maxLon;
+        return true;
+    }
+
+    private static InputStream openOsmFile(String pathToOsm) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(pathToOsm), 1024 * 1024);
+        if (pathToOsm.endsWith(".gz"))
+            return new GZIPInputStream(input, 64 * 1024);
+        if (pathToOsm.endsWith(".zip")) {
+            ZipInputStream zipInput = new ZipInputStream(input);
+            if (zipInput.getNextEntry() == null)
+                throw new IOException("The zip file is empty: " + pathToOsm);
+            return zipInput;
+        }
+        return input;
+    }
+}
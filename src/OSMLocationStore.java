@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Temporary on-disk map from the IDs of OSM elements to a fixed number of coordinates, used by the OSMImporter to
+// find the locations of the nodes of the ways (lat, lon) and the bounding boxes of the ways of the relations
+// (min lat, min lon, max lat, max lon). The entries [ID (long), coordinates (double each)] are appended to a
+// temporary file while the elements are read, and once all of them are added the file is memory-mapped and
+// searched by binary search, so the map takes almost no heap whatever the size of the OSM file. The elements of
+// the OSM files are sorted by ID, so the file is normally sorted already; if it is not, it is sorted in memory
+class OSMLocationStore implements AutoCloseable {
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final long MAX_REGION_SIZE = 1L << 30; // Mapped regions hold whole entries of at most 1GB
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int totalValues;
+    private final int entrySize;
+    private final ByteBuffer writeBuffer;
+    private long totalEntries;
+    private long lastId = Long.MIN_VALUE;
+    private boolean sorted = true;
+    private ArrayList<MappedByteBuffer> regions; // The mapped file, null until finish()
+    private long entriesPerRegion;
+
+    OSMLocationStore(String prefix, int totalValues) throws IOException {
+        this.path = Files.createTempFile(prefix, ".tmp");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.totalValues = totalValues;
+        this.entrySize = Long.BYTES + totalValues * Double.BYTES;
+        this.writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE - WRITE_BUFFER_SIZE % entrySize);
+    }
+
+    void add(long id, double... values) throws IOException {
+        if (isFinished())
+            throw new IllegalStateException("No entries can be added to the location store after it is finished");
+        if (values.length != totalValues)
+            throw new IllegalArgumentException("Expected " + totalValues + " values but found " + values.length);
+        if (!writeBuffer.hasRemaining())
+            flush();
+        writeBuffer.putLong(id);
+        for (double value : values)
+            writeBuffer.putDouble(value);
+        sorted &= id > lastId;
+        lastId = id;
+        totalEntries++;
+    }
+
+    boolean isFinished() {
+        return regions != null;
+    }
+
+    long getTotalEntries() {
+        return totalEntries;
+    }
+
+    // Writes the entries left, sorts them if they were not added by increasing ID and maps the file for the lookups
+    void finish() throws IOException {
+        if (isFinished())
+            return;
+        flush();
+        if (!sorted)
+            sortInMemory();
+        entriesPerRegion = MAX_REGION_SIZE / entrySize;
+        regions = new ArrayList<>();
+        for (long firstEntry = 0; firstEntry < totalEntries; firstEntry += entriesPerRegion) {
+            long regionEntries = Math.min(entriesPerRegion, totalEntries - firstEntry);
+            regions.add(channel.map(FileChannel.MapMode.READ_ONLY, firstEntry * entrySize, regionEntries * entrySize));
+        }
+    }
+
+    // Copies the coordinates of the element to values and returns true, or returns false if it is not in the store
+    boolean find(long id, double[] values) {
+        if (!isFinished())
+            throw new IllegalStateException("The location store must be finished before it is searched");
+        long low = 0;
+        long high = totalEntries - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            ByteBuffer region = regions.get((int) (middle / entriesPerRegion));
+            int offset = (int) (middle % entriesPerRegion) * entrySize;
+            long middleId = region.getLong(offset);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                for (int i = 0; i < totalValues; i++)
+                    values[i] = region.getDouble(offset + Long.BYTES + i * Double.BYTES);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining())
+            channel.write(writeBuffer, channel.size());
+        writeBuffer.clear();
+    }
+
+    // Sorts the entries by ID, keeping the last entry of every ID, and rewrites the file with them
+    private void sortInMemory() throws IOException {
+        if (totalEntries * entrySize > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("The unsorted elements of the OSM file are too many to be sorted in memory");
+        ByteBuffer entries = ByteBuffer.allocate((int) (totalEntries * entrySize));
+        while (entries.hasRemaining()) {
+            if (channel.read(entries, entries.position()) < 0)
+                throw new IOException("The location store ended while it was being read");
+        }
+        Long[] order = new Long[(int) totalEntries];
+        for (int i = 0; i < order.length; i++)
+            order[i] = (long) i;
+        // Stable sort, so the last entry of an ID comes last among the entries of the ID
+        Arrays.sort(order, (a, b) -> Long.compare(entries.getLong((int) (a * entrySize)), entries.getLong((int) (b * entrySize))));
+        ByteBuffer sortedEntries = ByteBuffer.allocate(entries.capacity());
+        for (int i = 0; i < order.length; i++) {
+            int offset = (int) (order[i] * entrySize);
+            boolean replacedByNext = i + 1 < order.length && entries.getLong((int) (order[i + 1] * entrySize)) == entries.getLong(offset);
+            if (!replacedByNext)
+                sortedEntries.put(sortedEntries.position(), entries, offset, entrySize).position(sortedEntries.position() + entrySize);
+        }
+        totalEntries = sortedEntries.position() / entrySize;
+        sortedEntries.flip();
+        channel.truncate(0);
+        while (sortedEntries.hasRemaining())
+            channel.write(sortedEntries, sortedEntries.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        regions = null;
+        channel.close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // A mapped file cannot be deleted on some systems until its mapping is garbage collected
+            path.toFile().deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+// Memory outside of the Java heap for the index nodes and datafile blocks kept in memory by the caches. The memory
+// is allocated in large direct chunks and handed out in slots whose size is a power of two, from MIN_SLOT_SIZE up
+// to the block size. Freed slots are kept per size and reused, so the chunks are never returned. The garbage
+// collector only sees the chunks and the small buffer objects pointing into them, not the nodes and blocks. The
+// slots are ByteBuffers rather than MemorySegments because the block views, BlockFormat and the memory-mapped
+// files all read blocks from ByteBuffers, so a node or block in a slot is read like any other block, and since
+// the chunks are never returned there is nothing for the explicit deallocation of a memory segment arena to free
+class OffHeapArena {
+    private static final int MIN_SLOT_SIZE = 64;
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final long maxBytes; // Maximum total size of the chunks
+    private final int maxSlotSize;
+    private final int chunkSize;
+    private final ArrayList<ArrayDeque<ByteBuffer>> freeSlots = new ArrayList<>(); // Free slots of every slot size
+    private ByteBuffer chunk; // Chunk the new slots are taken from
+    private long reservedBytes; // Total size of the chunks allocated
+    private long usedBytes; // Total size of the slots handed out
+
+    OffHeapArena(long maxBytes, int maxSlotSize) {
+        if (Integer.bitCount(maxSlotSize) != 1 || maxSlotSize < MIN_SLOT_SIZE)
+            throw new IllegalArgumentException("The largest slot of the arena must be a power of two of at least " + MIN_SLOT_SIZE + " bytes");
+        if (maxBytes < maxSlotSize)
+            throw new IllegalArgumentException("The arena must hold at least one slot of " + maxSlotSize + " bytes");
+        this.maxBytes = maxBytes;
+        this.maxSlotSize = maxSlotSize;
+        this.chunkSize = (int) Math.max(maxSlotSize, Math.min(CHUNK_SIZE, maxBytes));
+        for (int slotSize = MIN_SLOT_SIZE; slotSize <= maxSlotSize; slotSize <<= 1)
+            freeSlots.add(new ArrayDeque<>());
+    }
+
+    // Size of the slot allocated for the given amount of bytes
+    static int getSlotSize(int size) {
+        return Math.max(MIN_SLOT_SIZE, Integer.highestOneBit(Math.max(size - 1, 1)) << 1);
+    }
+
+    private ArrayDeque<ByteBuffer> getFreeSlots(int slotSize) {
+        return freeSlots.get(Integer.numberOfTrailingZeros(slotSize) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE));
+    }
+
+    // Returns a slot with room for the given amount of bytes, or null if the arena is full
+    ByteBuffer allocate(int size) {
+        if (size > maxSlotSize)
+            throw new IllegalArgumentException("Cannot allocate " + size + " bytes, the largest slot of the arena is " + maxSlotSize + " bytes");
+        int slotSize = getSlotSize(size);
+        ByteBuffer slot = getFreeSlots(slotSize).poll();
+        if (slot == null) {
+            if (chunk == null || chunk.remaining() < slotSize) {
+                if (reservedBytes + chunkSize > maxBytes)
+                    return null;
+                releaseRestOfChunk();
+                chunk = ByteBuffer.allocateDirect(chunkSize);
+                reservedBytes += chunkSize;
+            }
+            slot = chunk.slice(chunk.position(), slotSize);
+            chunk.position(chunk.position() + slotSize);
+        }
+        usedBytes += slotSize;
+        return slot;
+    }
+
+    // The end of the current chunk, too small for the slot requested, is split into smaller free slots
+    private void releaseRestOfChunk() {
+        if (chunk == null)
+            return;
+        for (int slotSize = maxSlotSize; slotSize >= MIN_SLOT_SIZE; slotSize >>= 1) {
+            while (chunk.remaining() >= slotSize) {
+                getFreeSlots(slotSize).push(chunk.slice(chunk.position(), slotSize));
+                chunk.position(chunk.position() + slotSize);
+            }
+        }
+    }
+
+    // Returns the slot to the arena. The slot must not be used after it is freed
+    void free(ByteBuffer slot) {
+        getFreeSlots(slot.capacity()).push(slot);
+        usedBytes -= slot.capacity();
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "Off-heap arena: [Used bytes: " + usedBytes + ", Reserved bytes: " + reservedBytes + "/" + maxBytes + "]";
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Cache of the index nodes read by the queries, kept in the OffHeapArena as OffHeapPackedNode flyweights instead of
+// Node objects, so the upper levels of a large tree can stay in memory without growing the heap. When the arena is
+// full the least recently used node taking a slot of the same size is evicted; if there is none the node is not
+// cached. Nodes are invalidated when they are modified through the index buffer
+class OffHeapNodeCache {
+    private final OffHeapArena arena;
+    private final LinkedHashMap<Long, OffHeapPackedNode> nodes = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    OffHeapNodeCache(OffHeapArena arena) {
+        this.arena = arena;
+    }
+
+    // Returns the cached node or null if it is not in the cache
+    PackedNode get(long blockId) {
+        OffHeapPackedNode node = nodes.get(blockId);
+        if (node == null)
+            misses++;
+        else
+            hits++;
+        return node;
+    }
+
+    // Copies the index block to the arena and returns the cached node, or null if there is no room for it
+    PackedNode put(long blockId, ByteBuffer indexBlock) throws IOException {
+        invalidate(blockId);
+        int usedBytes = BlockFormat.getIndexBlockUsedBytes(indexBlock);
+        ByteBuffer slot = arena.allocate(usedBytes);
+        if (slot == null && evictSlot(OffHeapArena.getSlotSize(usedBytes)))
+            slot = arena.allocate(usedBytes);
+        if (slot == null)
+            return null;
+        OffHeapPackedNode node = OffHeapPackedNode.copyOf(blockId, indexBlock, slot);
+        nodes.put(blockId, node);
+        return node;
+    }
+
+    private boolean evictSlot(int slotSize) {
+        Iterator<OffHeapPackedNode> eldest = nodes.values().iterator();
+        while (eldest.hasNext()) {
+            OffHeapPackedNode node = eldest.next();
+            if (node.getSlot().capacity() == slotSize) {
+                eldest.remove();
+                release(node);
+                evictions++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(OffHeapPackedNode node) {
+        ByteBuffer slot = node.getSlot();
+        node.moveToHeap();
+        arena.free(slot);
+    }
+
+    // Removes the node from the cache, used when the node is modified
+    void invalidate(long blockId) {
+        OffHeapPackedNode node = nodes.remove(blockId);
+        if (node != null)
+            release(node);
+    }
+
+    void clear() {
+        for (OffHeapPackedNode node : nodes.values())
+            release(node);
+        nodes.clear();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "Off-heap node cache: [Nodes: " + nodes.size() + ", Bytes: " + arena.getUsedBytes() + "/" + arena.getMaxBytes() +
+                ", Hits: " + hits + ", Misses: " + misses + ", Evictions: " + evictions + "]";
+    }
+}
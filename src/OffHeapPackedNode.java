@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Flyweight PackedNode reading the entries of the node in place from a copy of its index block kept in a slot of
+// the OffHeapArena, laid out as in the index block. When the slot is freed the node moves its entries to the heap
+// first, so the queries still holding it keep reading the right entries
+class OffHeapPackedNode extends PackedNode {
+    private ByteBuffer node;
+    private final int childBlockIdsOffset;
+
+    OffHeapPackedNode(long blockId, ByteBuffer node) throws IOException {
+        super(blockId, node.getInt(BlockFormat.HEADER_SIZE), BlockFormat.readIndexBlockHeader(node), node.getInt(BlockFormat.HEADER_SIZE + Integer.BYTES));
+        this.node = node;
+        this.childBlockIdsOffset = BlockFormat.INDEX_HEADER_SIZE + getTotalEntries() * 2 * getDimensions() * Double.BYTES;
+    }
+
+    // Copies the used bytes of the index block to the slot and returns the node reading them
+    static OffHeapPackedNode copyOf(long blockId, ByteBuffer indexBlock, ByteBuffer slot) throws IOException {
+        slot.put(0, indexBlock, 0, BlockFormat.getIndexBlockUsedBytes(indexBlock));
+        return new OffHeapPackedNode(blockId, slot);
+    }
+
+    ByteBuffer getSlot() {
+        return node;
+    }
+
+    // Copies the entries to the heap, called before the slot of the node is freed
+    void moveToHeap() {
+        ByteBuffer heapNode = ByteBuffer.allocate(node.capacity());
+        heapNode.put(0, node, 0, node.capacity());
+        node = heapNode;
+    }
+
+    private int getBoundingBoxOffset(int entry) {
+        return BlockFormat.INDEX_HEADER_SIZE + entry * 2 * getDimensions() * Double.BYTES;
+    }
+
+    @Override
+    long getChildBlockId(int entry) {
+        return node.getLong(childBlockIdsOffset + entry * Long.BYTES);
+    }
+
+    @Override
+    double getLower(int entry, int dimension) {
+        return node.getDouble(getBoundingBoxOffset(entry) + dimension * Double.BYTES);
+    }
+
+    @Override
+    double getUpper(int entry, int dimension) {
+        return node.getDouble(getBoundingBoxOffset(entry) + (getDimensions() + dimension) * Double.BYTES);
+    }
+
+    @Override
+    boolean overlaps(int entry, double[] lower, double[] upper) {
+        boolean overlaps = true;
+        for (int d = 0; d < getDimensions(); d++)
+            overlaps &= getLower(entry, d) <= upper[d] & getUpper(entry, d) >= lower[d];
+        return overlaps;
+    }
+
+    @Override
+    boolean isInside(int entry, double[] lower, double[] upper) {
+        boolean inside = true;
+        for (int d = 0; d < getDimensions(); d++)
+            inside &= getLower(entry, d) >= lower[d] & getUpper(entry, d) <= upper[d];
+        return inside;
+    }
+
+    @Override
+    double findMinSquaredDistanceFromPoint(int entry, double[] point) {
+        double minDistance = 0;
+        for (int d = 0; d < getDimensions(); d++) {
+            double nearest = Math.min(Math.max(point[d], getLower(entry, d)), getUpper(entry, d));
+            double diff = point[d] - nearest;
+            minDistance += diff * diff;
+        }
+        return minDistance;
+    }
+}
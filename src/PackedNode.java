@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+
+// Compact read-only representation of a Node, used by the queries. Instead of Entry, BoundingBox and Bounds objects
+// it keeps the MBRs of all the entries in one array (for every entry: its lower bounds per dimension followed by
+// its upper bounds per dimension, the same layout as in the index blocks) and their child block IDs in another,
+// so the checks against every entry of a node are simple loops over primitive arrays. OffHeapPackedNode reads the
+// same fields from a node kept outside of the Java heap
+class PackedNode {
+    private final long blockId;
+    private final int level;
+    private final int dimensions;
+    private final int totalEntries;
+    private final double[] boundingBoxes;
+    private final long[] childBlockIds;
+
+    PackedNode(long blockId, int level, int dimensions, double[] boundingBoxes, long[] childBlockIds) {
+        this.blockId = blockId;
+        this.level = level;
+        this.dimensions = dimensions;
+        this.totalEntries = childBlockIds.length;
+        this.boundingBoxes = boundingBoxes;
+        this.childBlockIds = childBlockIds;
+    }
+
+    PackedNode(long blockId, int level, int dimensions, int totalEntries) {
+        this.blockId = blockId;
+        this.level = level;
+        this.dimensions = dimensions;
+        this.totalEntries = totalEntries;
+        this.boundingBoxes = null;
+        this.childBlockIds = null;
+    }
+
+    static PackedNode fromNode(Node node) {
+        int dimensions = FilesManager.getDataDimensions();
+        ArrayList<Entry> entries = node.getEntries();
+        double[] boundingBoxes = new double[entries.size() * 2 * dimensions];
+        long[] childBlockIds = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            BoundingBox boundingBox = entry.getBoundingBox();
+            int offset = i * 2 * dimensions;
+            for (int d = 0; d < dimensions; d++) {
+                boundingBoxes[offset + d] = boundingBox.getLower(d);
+                boundingBoxes[offset + dimensions + d] = boundingBox.getUpper(d);
+            }
+            Long childNodeBlockId = entry.getChildNodeBlockId();
+            childBlockIds[i] = childNodeBlockId == null ? BlockFormat.NO_CHILD_BLOCK_ID : childNodeBlockId;
+        }
+        return new PackedNode(node.getNodeBlockId(), node.getNodeLevelInTree(), dimensions, boundingBoxes, childBlockIds);
+    }
+
+    long getNodeBlockId() {
+        return blockId;
+    }
+
+    int getNodeLevelInTree() {
+        return level;
+    }
+
+    boolean isLeaf() {
+        return level == RStarTree.getLeafLevel();
+    }
+
+    int getTotalEntries() {
+        return totalEntries;
+    }
+
+    int getDimensions() {
+        return dimensions;
+    }
+
+    // The child node block ID of the entry, or the datafile block ID if this is a leaf node
+    long getChildBlockId(int entry) {
+        return childBlockIds[entry];
+    }
+
+    double getLower(int entry, int dimension) {
+        return boundingBoxes[entry * 2 * dimensions + dimension];
+    }
+
+    double getUpper(int entry, int dimension) {
+        return boundingBoxes[entry * 2 * dimensions + dimensions + dimension];
+    }
+
+    // Checks if the MBR of the entry overlaps with the box given by its lower and upper bounds
+    boolean overlaps(int entry, double[] lower, double[] upper) {
+        int offset = entry * 2 * dimensions;
+        boolean overlaps = true;
+        for (int d = 0; d < dimensions; d++)
+            overlaps &= boundingBoxes[offset + d] <= upper[d] & boundingBoxes[offset + dimensions + d] >= lower[d];
+        return overlaps;
+    }
+
+    // True if the MBR of the entry lies completely inside the bounds [lower, upper]
+    boolean isInside(int entry, double[] lower, double[] upper) {
+        int offset = entry * 2 * dimensions;
+        boolean inside = true;
+        for (int d = 0; d < dimensions; d++)
+            inside &= boundingBoxes[offset + d] >= lower[d] & boundingBoxes[offset + dimensions + d] <= upper[d];
+        return inside;
+    }
+
+    // Squared minimum distance between the point and the MBR of the entry
+    double findMinSquaredDistanceFromPoint(int entry, double[] point) {
+        int offset = entry * 2 * dimensions;
+        double minDistance = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double nearest = Math.min(Math.max(point[d], boundingBoxes[offset + d]), boundingBoxes[offset + dimensions + d]);
+            double diff = point[d] - nearest;
+            minDistance += diff * diff;
+        }
+        return minDistance;
+    }
+
+    double findMinDistanceFromPoint(int entry, double[] point) {
+        return Math.sqrt(findMinSquaredDistanceFromPoint(entry, point));
+    }
+}
@@ -1,4 +1,8 @@
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 public class RStarTree {
@@ -8,29 +12,30 @@ public class RStarTree {
     private static final int ROOT_NODE_BLOCK_ID = 1;
     private static final int LEAF_LEVEL = 1;
     private static final int CHOOSE_SUBTREE_LEVEL = 32;
-    private static final int REINSERT_TREE_ENTRIES = (int) (0.3 * Node.getMaxEntriesInNode());
-    private static final Map<Long, Long> recordToLeafMap = new HashMap<>();
+    private static final double REINSERT_TREE_ENTRIES_RATIO = 0.3; // Reinserting 30% of M entries on overflow
+    private static final int PARALLEL_TILING_SIZE = 16384; // Items from which the slabs of the STR packing are tiled in parallel
+    private static double bulkLoadFillFactor = 1.0; // Fraction of the nodes and datafile blocks filled by the bulk load
+    private static BulkLoadMethod bulkLoadMethod = BulkLoadMethod.SORT_TILE_RECURSIVE;
+    private static long bulkLoadMemory = Runtime.getRuntime().maxMemory() / 4; // Bytes of records the bulk load sorts in memory
+    private static int bulkLoadThreads = Runtime.getRuntime().availableProcessors(); // Threads sorting and packing the bulk load
 
+    // Orders in which the bulk load packs the records into the datafile blocks and the nodes
+    enum BulkLoadMethod { SORT_TILE_RECURSIVE, HILBERT }
+
+    // The whole index is built in one batch of the write-ahead log, so it is written to the disk all at once
     RStarTree(boolean doBulkLoad) {
+        FilesManager.beginBatch();
+        try {
+            build(doBulkLoad);
+        } finally {
+            FilesManager.commitBatch();
+        }
+    }
+
+    private void build(boolean doBulkLoad) {
         this.totalLevels = FilesManager.getTotalLevelsFile();
-        long startRead = System.currentTimeMillis();
         if (doBulkLoad) {
-            List<RecordBlockPairID> allRecordsPairs = new ArrayList<>();
-            int totalBlocks = FilesManager.getTotalBlocksInDataFile();
-
-            for (int i = 1; i < totalBlocks; i++) {
-                ArrayList<Record> blockRecords = FilesManager.readDataFileBlock(i);
-                if (blockRecords != null) {
-                    for (Record record : blockRecords) {
-                        allRecordsPairs.add(new RecordBlockPairID(record, i));
-                    }
-                } else {
-                    throw new IllegalStateException("Error reading records from datafile");
-                }
-            }
-            long endRead = System.currentTimeMillis();
-            System.out.println("📦 Record loading took: " + (endRead - startRead) + " ms");
-            bulkLoad(allRecordsPairs);
+            bulkLoad();
             printTreeStats();
             FilesManager.flushIndexBufferToDisk();
             System.out.println("✅ Total levels after bulk-load: " + totalLevels);
@@ -64,15 +69,16 @@ public class RStarTree {
         return LEAF_LEVEL;
     }
 
+    private static int getReinsertTreeEntries() {
+        return Math.max(1, (int) (REINSERT_TREE_ENTRIES_RATIO * Node.getMaxEntriesInNode()));
+    }
+
     private void insertDataBlock(ArrayList<Record> records, long datafileBlockId) {
         ArrayList<Bounds> boundsList = Bounds.findMinimumBoundsFromRecords(records);
         BoundingBox blockBoundingBox = new BoundingBox(boundsList);
         LeafEntry entry = new LeafEntry(datafileBlockId, blockBoundingBox);
         this.levelsInserted = new boolean[totalLevels];
         insert(null, null, entry, LEAF_LEVEL);
-        for (Record r : records) {
-            RStarTree.recordToLeafMap.put(r.getRecordID(), datafileBlockId);
-        }
     }
 
 
@@ -84,11 +90,19 @@ public class RStarTree {
             FilesManager.updateIndexFileBlock(parentNode, totalLevels);
         }
 
-        Node childNode = FilesManager.readIndexFileBlock(nodeBlockId);
+        // The node stays pinned in the index buffer while the insertion goes on below it
+        Node childNode = FilesManager.pinIndexFileBlock(nodeBlockId);
         if (childNode == null) {
             throw new IllegalStateException("Node-block is null");
         }
+        try {
+            return insertInNode(parentNode, parentEntry, childNode, dataEntry, levelToAdd);
+        } finally {
+            FilesManager.unpinIndexFileBlock(nodeBlockId);
+        }
+    }
 
+    private Entry insertInNode(Node parentNode, Entry parentEntry, Node childNode, Entry dataEntry, int levelToAdd) {
         if (levelToAdd > totalLevels) {
             totalLevels = levelToAdd;
             boolean[] newLevelsInserted = new boolean[totalLevels];
@@ -155,7 +169,7 @@ public class RStarTree {
     }
 
     private double computeAreaEnlargement(Entry entry, BoundingBox toAdd) {
-        BoundingBox enlarged = new BoundingBox(Bounds.findMinimumBounds(entry.getBoundingBox(), toAdd));
+        BoundingBox enlarged = BoundingBox.findMinimumBoundingBox(entry.getBoundingBox(), toAdd);
         return enlarged.getArea() - entry.getBoundingBox().getArea();
     }
 
@@ -222,7 +236,7 @@ public class RStarTree {
                 new EntryComparator.EntryDistanceFromCenterComparator(childNode.getEntries(), parentEntry.getBoundingBox())
         );
 
-        int start = totalEntries - REINSERT_TREE_ENTRIES;
+        int start = totalEntries - getReinsertTreeEntries();
         ArrayList<Entry> removedEntries = new ArrayList<>(childNode.getEntries().subList(start, totalEntries));
         childNode.getEntries().subList(start, totalEntries).clear();
 
@@ -236,87 +250,269 @@ public class RStarTree {
         }
     }
 
+    // Every insertion is committed as one batch of the write-ahead log, unless the caller has opened a batch
+    // around many insertions with FilesManager.beginBatch()
     public void insertSingleRecord(Record record) {
-        // Δημιουργούμε προσωρινό block με μόνο αυτή την εγγραφή
+        FilesManager.beginBatch();
+        try {
+            insertRecord(record);
+        } finally {
+            FilesManager.commitBatch();
+        }
+    }
+
+    private void insertRecord(Record record) {
+        // Η εγγραφή μπαίνει σε υπάρχον block κοντά στους χωρικούς γείτονές της, αν έχει χώρο
+        if (insertInDataBlockWithRoom(record)) {
+            System.out.println("🟢 Η εγγραφή προστέθηκε στο R*-Tree");
+            return;
+        }
+
+        // Διαφορετικά γράφουμε νέο block (ή ένα άδειο block που ξαναχρησιμοποιείται) στο datafile
         ArrayList<Record> block = new ArrayList<>();
         block.add(record);
-
-        // Γράφουμε νέο block στο τέλος του datafile
-        FilesManager.writeDataFileBlock(block);
-        long newBlockId = FilesManager.getTotalBlocksInDataFile() - 1;
+        long newBlockId = FilesManager.writeDataFileBlock(block);
 
         // Δημιουργούμε MBR μόνο για το νέο record
-        ArrayList<Bounds> boundsList = new ArrayList<>();
-        for (int i = 0; i < record.getCoordinates().size(); i++) {
-            double value = record.getCoordinateFromDimension(i);
-            boundsList.add(new Bounds(value, value));
-        }
-        BoundingBox boundingBox = new BoundingBox(boundsList);
+        BoundingBox boundingBox = new BoundingBox(record);
         LeafEntry entry = new LeafEntry(newBlockId, boundingBox);
 
         // Εισαγωγή στο R*-Tree στο φύλλο επίπεδο
+        this.levelsInserted = new boolean[totalLevels];
         insert(null, null, entry, LEAF_LEVEL);
 
-        // Ενημέρωση του map ώστε να μπορεί να διαγραφεί αργότερα
-        recordToLeafMap.put(record.getRecordID(), entry.getDataBlockId());
-
         System.out.println("🟢 Η εγγραφή προστέθηκε στο R*-Tree");
     }
 
+    // Follows the subtrees chosen for the record down to a leaf and adds the record to the datafile block of the
+    // leaf's entries that has room for it and needs the least enlargement. The bounding boxes on the path are
+    // enlarged to include the record. Returns false if none of the blocks of the leaf has room
+    private boolean insertInDataBlockWithRoom(Record record) {
+        BoundingBox recordBoundingBox = new BoundingBox(record);
+        int recordSize = BlockFormat.getRecordSize(record, FilesManager.getDataDimensions());
+        ArrayList<Node> pathNodes = new ArrayList<>();
+        ArrayList<Entry> pathEntries = new ArrayList<>();
+        Node node = getRootNode();
+        while (node != null && node.getNodeLevelInTree() > LEAF_LEVEL) {
+            Entry entry = chooseSubTree(node, recordBoundingBox, LEAF_LEVEL);
+            pathNodes.add(node);
+            pathEntries.add(entry);
+            node = FilesManager.readIndexFileBlock(entry.getChildNodeBlockId());
+        }
+        if (node == null)
+            return false;
 
+        ArrayList<Entry> blocksWithRoom = new ArrayList<>();
+        for (Entry entry : node.getEntries()) {
+            if (entry instanceof LeafEntry && FilesManager.getFreeBytesInDataFileBlock(((LeafEntry) entry).getDataBlockId()) >= recordSize)
+                blocksWithRoom.add(entry);
+        }
+        if (blocksWithRoom.isEmpty())
+            return false;
+
+        LeafEntry leafEntry = (LeafEntry) getEntryWithMinAreaEnlargement(blocksWithRoom, recordBoundingBox);
+        if (!FilesManager.insertRecordInDataFileBlock(leafEntry.getDataBlockId(), record))
+            return false;
+
+        Entry recordEntry = new Entry(recordBoundingBox);
+        leafEntry.adjustBBToFitEntry(recordEntry);
+        FilesManager.updateIndexFileBlock(node, totalLevels);
+        for (int i = pathNodes.size() - 1; i >= 0; i--) {
+            pathEntries.get(i).adjustBBToFitEntry(recordEntry);
+            FilesManager.updateIndexFileBlock(pathNodes.get(i), totalLevels);
+        }
+        return true;
+    }
 
+    // Inserts many records at once, like a buffer tree: the records wait in buffers attached to the nodes and are
+    // pushed down one level at a time, so every node on the way is read, enlarged and written once for the whole
+    // batch instead of once per record. At the leaves the records go into the datafile blocks with room for them,
+    // with one write per block, and the records left over are packed into new blocks whose entries are inserted in
+    // the tree as usual. The whole batch is committed as one batch of the write-ahead log
+    public void insertRecords(List<Record> records) {
+        FilesManager.beginBatch();
+        try {
+            ArrayList<Record> leftOverRecords = new ArrayList<>();
+            pushDownRecords(ROOT_NODE_BLOCK_ID, new ArrayList<>(records), leftOverRecords);
+            for (LeafEntry entry : writeNewDataBlocks(leftOverRecords)) {
+                this.levelsInserted = new boolean[totalLevels];
+                insert(null, null, entry, LEAF_LEVEL);
+            }
+            System.out.println("🟢 " + records.size() + " εγγραφές προστέθηκαν στο R*-Tree");
+        } finally {
+            FilesManager.commitBatch();
+        }
+    }
 
+    // Empties the buffer of the node into the buffers of the subtrees chosen for its records, and those into the
+    // level below, down to the leaves. The records that fit in none of the blocks of their leaf are added to the
+    // left over records. Returns the bounding box of the records added to the blocks of the subtree, or null
+    private BoundingBox pushDownRecords(long nodeBlockId, ArrayList<Record> buffer, ArrayList<Record> leftOverRecords) {
+        Node node = FilesManager.pinIndexFileBlock(nodeBlockId);
+        if (node == null)
+            throw new IllegalStateException("Node-block is null");
+        try {
+            BoundingBox addedBoundingBox = node.getNodeLevelInTree() == LEAF_LEVEL
+                    ? addRecordsToLeafBlocks(node, buffer, leftOverRecords)
+                    : pushDownToChildren(node, buffer, leftOverRecords);
+            if (addedBoundingBox != null)
+                FilesManager.updateIndexFileBlock(node, totalLevels);
+            return addedBoundingBox;
+        } finally {
+            FilesManager.unpinIndexFileBlock(nodeBlockId);
+        }
+    }
+
+    private BoundingBox pushDownToChildren(Node node, ArrayList<Record> buffer, ArrayList<Record> leftOverRecords) {
+        // The subtrees are chosen by the bounding boxes the entries had before the batch
+        Map<Entry, ArrayList<Record>> childBuffers = new IdentityHashMap<>();
+        for (Record record : buffer)
+            childBuffers.computeIfAbsent(chooseSubTree(node, new BoundingBox(record), LEAF_LEVEL), entry -> new ArrayList<>()).add(record);
+        buffer.clear();
+        BoundingBox addedBoundingBox = null;
+        for (Entry entry : node.getEntries()) {
+            ArrayList<Record> childBuffer = childBuffers.get(entry);
+            if (childBuffer == null)
+                continue;
+            BoundingBox childBoundingBox = pushDownRecords(entry.getChildNodeBlockId(), childBuffer, leftOverRecords);
+            if (childBoundingBox == null)
+                continue;
+            entry.adjustBBToFitEntry(new Entry(childBoundingBox));
+            addedBoundingBox = addedBoundingBox == null ? childBoundingBox : BoundingBox.findMinimumBoundingBox(addedBoundingBox, childBoundingBox);
+        }
+        return addedBoundingBox;
+    }
+
+    // Adds every record to the block of the leaf with room for it that needs the least enlargement, writing every
+    // block once with all its new records
+    private BoundingBox addRecordsToLeafBlocks(Node leaf, ArrayList<Record> buffer, ArrayList<Record> leftOverRecords) {
+        int dimensions = FilesManager.getDataDimensions();
+        Map<Entry, Integer> freeBytes = new IdentityHashMap<>();
+        for (Entry entry : leaf.getEntries()) {
+            if (entry instanceof LeafEntry)
+                freeBytes.put(entry, FilesManager.getFreeBytesInDataFileBlock(((LeafEntry) entry).getDataBlockId()));
+        }
+        Map<Entry, ArrayList<Record>> blockRecords = new IdentityHashMap<>();
+        for (Record record : buffer) {
+            int recordSize = BlockFormat.getRecordSize(record, dimensions);
+            ArrayList<Entry> blocksWithRoom = new ArrayList<>();
+            for (Entry entry : leaf.getEntries()) {
+                if (freeBytes.getOrDefault(entry, 0) >= recordSize)
+                    blocksWithRoom.add(entry);
+            }
+            if (blocksWithRoom.isEmpty()) {
+                leftOverRecords.add(record);
+                continue;
+            }
+            Entry entry = getEntryWithMinAreaEnlargement(blocksWithRoom, new BoundingBox(record));
+            freeBytes.put(entry, freeBytes.get(entry) - recordSize);
+            blockRecords.computeIfAbsent(entry, e -> new ArrayList<>()).add(record);
+        }
+        BoundingBox addedBoundingBox = null;
+        for (Entry entry : leaf.getEntries()) {
+            ArrayList<Record> newRecords = blockRecords.get(entry);
+            if (newRecords == null)
+                continue;
+            if (!FilesManager.insertRecordsInDataFileBlock(((LeafEntry) entry).getDataBlockId(), newRecords)) {
+                leftOverRecords.addAll(newRecords);
+                continue;
+            }
+            BoundingBox recordsBoundingBox = new BoundingBox(Bounds.findMinimumBoundsFromRecords(newRecords));
+            entry.adjustBBToFitEntry(new Entry(recordsBoundingBox));
+            addedBoundingBox = addedBoundingBox == null ? recordsBoundingBox : BoundingBox.findMinimumBoundingBox(addedBoundingBox, recordsBoundingBox);
+        }
+        return addedBoundingBox;
+    }
+
+    // Packs the records, in their order, into as few new datafile blocks as they fit in and returns the leaf
+    // entries of the blocks
+    private static ArrayList<LeafEntry> writeNewDataBlocks(ArrayList<Record> records) {
+        int dimensions = FilesManager.getDataDimensions();
+        ArrayList<LeafEntry> entries = new ArrayList<>();
+        ArrayList<Record> block = new ArrayList<>();
+        for (Record record : records) {
+            block.add(record);
+            if (block.size() > 1 && BlockFormat.getDataBlockSize(block, dimensions) > FilesManager.getBlockSize()) {
+                block.removeLast();
+                entries.add(writeNewDataBlock(block));
+                block = new ArrayList<>();
+                block.add(record);
+            }
+        }
+        if (!block.isEmpty())
+            entries.add(writeNewDataBlock(block));
+        return entries;
+    }
+
+    private static LeafEntry writeNewDataBlock(ArrayList<Record> records) {
+        long blockId = FilesManager.writeDataFileBlock(records);
+        return new LeafEntry(blockId, new BoundingBox(Bounds.findMinimumBoundsFromRecords(records)));
+    }
+
+    // Like the insertions, every deletion is committed as one batch of the write-ahead log
     public void deleteRecord(Record record) {
-        // Ανάκτηση του LeafEntry (ή blockID) από το recordToLeafMap
-        Long dataBlockId = recordToLeafMap.get(record.getRecordID());
-        if (dataBlockId == null) {
+        FilesManager.beginBatch();
+        try {
+            removeRecord(record);
+        } finally {
+            FilesManager.commitBatch();
+        }
+    }
+
+    private void removeRecord(Record record) {
+        // Ανάκτηση του blockID από το record index του datafile
+        long dataBlockId = FilesManager.findDataFileBlockOfRecord(record.getRecordID());
+        if (dataBlockId == RecordIndex.NOT_FOUND) {
             System.out.println("❌ Record not found in index.");
             return;
         }
 
         // Ανάκτηση του φύλλου που περιέχει το Entry
-        Node leafNode = findLeafNodeContainingDataBlock(dataBlockId);
+        Node leafNode = findLeafNodeContainingDataBlock(dataBlockId, new BoundingBox(record));
         if (leafNode == null) {
             System.out.println("❌ Leaf node not found.");
             return;
         }
-
-        // Αφαίρεση του LeafEntry από τον κόμβο
-        boolean removed = leafNode.getEntries().removeIf(e ->
-                e instanceof LeafEntry && ((LeafEntry) e).getDataBlockId() == dataBlockId
-        );
-
-        if (removed) {
-            System.out.println("✅ LeafEntry removed from index.");
-            FilesManager.updateIndexFileBlock(leafNode, FilesManager.getTotalLevelsFile());
-        } else {
-            System.out.println("⚠️ No matching LeafEntry found in node.");
+        Entry leafEntry = null;
+        for (Entry entry : leafNode.getEntries()) {
+            if (entry instanceof LeafEntry && ((LeafEntry) entry).getDataBlockId() == dataBlockId)
+                leafEntry = entry;
         }
 
         // Διαγραφή της εγγραφής από το datafile
-        FilesManager.deleteRecordFromDataBlock(record);
-
-        // Optional: Reinsertion of remaining entries from the same block if underflow
-        if (leafNode.getEntries().size() < Node.getMinEntriesInNode()) {
-            System.out.println("ℹ️ Underflow detected, reinserting remaining entries...");
-            ArrayList<Entry> entriesToReinsert = new ArrayList<>(leafNode.getEntries());
-            leafNode.getEntries().clear();
-            condenseTree(leafNode);
+        if (!FilesManager.deleteRecordFromDataBlock(record)) {
+            System.out.println("❌ Record not found in datafile.");
+            return;
         }
 
-        // Αφαίρεση από τον χάρτη
-        recordToLeafMap.remove(record.getRecordID());
+        DataBlockView block = FilesManager.readDataFileBlockView(dataBlockId);
+        if (block != null && block.getTotalRecords() > 0) {
+            // The other records of the block stay in it, so its entry is only fitted to them
+            leafEntry.adjustBBToFitRecords(block.getRecords());
+            FilesManager.updateIndexFileBlock(leafNode, totalLevels);
+        } else {
+            // The empty block is used again by the next block written to the datafile, so its entry is removed
+            leafNode.getEntries().remove(leafEntry);
+            System.out.println("✅ LeafEntry removed from index.");
+            FilesManager.updateIndexFileBlock(leafNode, totalLevels);
+
+            // Reinsertion of the remaining entries of the leaf if underflow
+            if (leafNode.getEntries().size() < Node.getMinEntriesInNode()) {
+                System.out.println("ℹ️ Underflow detected, reinserting remaining entries...");
+                condenseTree(leafNode);
+            }
+        }
 
         System.out.println("✅ Record deleted successfully.");
     }
 
 
-    private Node findLeafNodeContainingDataBlock(Long dataBlockId) {
+    private Node findLeafNodeContainingDataBlock(Long dataBlockId, BoundingBox recordBoundingBox) {
         Node root = getRootNode();
-        return searchLeafRecursive(root, dataBlockId);
+        return searchLeafRecursive(root, dataBlockId, recordBoundingBox);
     }
 
-    private Node searchLeafRecursive(Node node, Long dataBlockId) {
+    private Node searchLeafRecursive(Node node, Long dataBlockId, BoundingBox recordBoundingBox) {
         if (node.getNodeLevelInTree() == getLeafLevel()) {
             for (Entry entry : node.getEntries()) {
                 if (entry instanceof LeafEntry && ((LeafEntry) entry).getDataBlockId() == dataBlockId) {
@@ -327,9 +523,10 @@ public class RStarTree {
         }
 
         for (Entry entry : node.getEntries()) {
+            if (!BoundingBox.checkOverlap(entry.getBoundingBox(), recordBoundingBox)) continue;
             Node child = FilesManager.readIndexFileBlock(entry.getChildNodeBlockId());
             if (child == null) continue;
-            Node result = searchLeafRecursive(child, dataBlockId);
+            Node result = searchLeafRecursive(child, dataBlockId, recordBoundingBox);
             if (result != null) return result;
         }
 
@@ -398,19 +595,23 @@ public class RStarTree {
         }
     }
 
+    // The nodes are only read while searching for the parent, so they are read in packed form (kept off the heap
+    // when the off-heap node cache is used) and only the parent found is read as a Node
     private Node findParent(Node child) {
-        Node root = getRootNode();
-        return searchParentRecursive(root, child.getNodeBlockId());
+        PackedNode root = FilesManager.readPackedIndexFileBlock(ROOT_NODE_BLOCK_ID);
+        Long parentBlockId = root == null ? null : searchParentRecursive(root, ROOT_NODE_BLOCK_ID, child.getNodeBlockId());
+        return parentBlockId == null ? null : FilesManager.readIndexFileBlock(parentBlockId);
     }
 
-    private Node searchParentRecursive(Node current, long childId) {
-        if (current.getNodeLevelInTree() == LEAF_LEVEL) return null;
+    private Long searchParentRecursive(PackedNode current, long currentBlockId, long childId) {
+        if (current.isLeaf()) return null;
 
-        for (Entry entry : current.getEntries()) {
-            if (entry.getChildNodeBlockId() == childId) return current;
-            Node next = FilesManager.readIndexFileBlock(entry.getChildNodeBlockId());
+        for (int entry = 0; entry < current.getTotalEntries(); entry++) {
+            long childBlockId = current.getChildBlockId(entry);
+            if (childBlockId == childId) return currentBlockId;
+            PackedNode next = FilesManager.readPackedIndexFileBlock(childBlockId);
             if (next != null) {
-                Node result = searchParentRecursive(next, childId);
+                Long result = searchParentRecursive(next, childBlockId, childId);
                 if (result != null) return result;
             }
         }
@@ -425,7 +626,7 @@ public class RStarTree {
     }
 
     public static void printTreeStats() {
-        Node root = FilesManager.readIndexFileBlock(RStarTree.getRootNodeBlockId());
+        PackedNode root = FilesManager.readPackedIndexFileBlock(RStarTree.getRootNodeBlockId());
         Map<Integer, Integer> levelNodeCounts = new HashMap<>();
         traverseAndCount(root, levelNodeCounts);
 
@@ -441,14 +642,14 @@ public class RStarTree {
                 });
     }
 
-    private static void traverseAndCount(Node node, Map<Integer, Integer> levelNodeCounts) {
+    private static void traverseAndCount(PackedNode node, Map<Integer, Integer> levelNodeCounts) {
         int level = node.getNodeLevelInTree();
         levelNodeCounts.put(level, levelNodeCounts.getOrDefault(level, 0) + 1);
 
         // Αν δεν είναι φύλλο, συνέχισε προς τα κάτω
         if (level > RStarTree.getLeafLevel()) {
-            for (Entry entry : node.getEntries()) {
-                Node child = FilesManager.readIndexFileBlock(entry.getChildNodeBlockId());
+            for (int entry = 0; entry < node.getTotalEntries(); entry++) {
+                PackedNode child = FilesManager.readPackedIndexFileBlock(node.getChildBlockId(entry));
                 if (child != null) {
                     traverseAndCount(child, levelNodeCounts);
                 }
@@ -456,103 +657,373 @@ public class RStarTree {
         }
     }
 
-    public void bulkLoad(List<RecordBlockPairID> records) {
-        int sliceSize = (int) Math.ceil(Math.sqrt(records.size()));
-        int maxEntries = Node.getMaxEntriesInNode();
-        System.out.println("Starting STR bulk loading for " + records.size() + " records");
-        long startTime = System.currentTimeMillis();
-
-        records.sort(Comparator.comparingDouble(o -> o.getRecord().getCoordinates().get(0)));
+    // Sets how full the bulk load fills the nodes and the datafile blocks, leaving the rest for later insertions
+    static void setBulkLoadFillFactor(double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1)
+            throw new IllegalArgumentException("The fill factor must be more than 0 and at most 1");
+        bulkLoadFillFactor = fillFactor;
+    }
 
-        List<Node> leafNodes = new ArrayList<>();
-        List<Node> writeBuffer = new ArrayList<>();
+    // Sets how the bulk load orders the records and packs them into the nodes
+    static void setBulkLoadMethod(BulkLoadMethod bulkLoadMethod) {
+        RStarTree.bulkLoadMethod = bulkLoadMethod;
+    }
 
-        for (int i = 0; i < records.size(); i += sliceSize) {
-            int end = Math.min(i + sliceSize, records.size());
-            List<RecordBlockPairID> slice = records.subList(i, end);
-            slice.sort(Comparator.comparingDouble(o -> o.getRecord().getCoordinates().get(1)));
+    // Sets the memory in which the bulk load sorts the records. Records beyond it are sorted in runs on the disk
+    // and merged, so the datafile can be much larger than the heap. It should hold at least the records of a few
+    // leaves per dimension, since the Sort-Tile-Recursive packing keeps the records of whole leaves in memory
+    static void setBulkLoadMemory(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("The bulk load memory must be positive");
+        bulkLoadMemory = bytes;
+    }
 
-            for (int j = 0; j < slice.size(); j += maxEntries) {
-                int endGroup = Math.min(j + maxEntries, slice.size());
-                List<RecordBlockPairID> group = slice.subList(j, endGroup);
+    // Sets the number of threads of the bulk load. The datafile and the index are the same for any number
+    static void setBulkLoadThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread must bulk load the tree");
+        bulkLoadThreads = threads;
+    }
 
-                ArrayList<Entry> entries = new ArrayList<>();
-                for (RecordBlockPairID pair : group) {
-                    entries.add(new Entry(new BoundingBox(pair.getRecord())));
-                }
+    // Gives the coordinate of the center of an item in a dimension, by which the items are sorted
+    private interface CenterFunction<T> {
+        double getCenter(T item, int dimension);
+    }
 
-                Node node = new Node(1, entries);
-                writeBuffer.add(node);
-                leafNodes.add(node);
+    private static final CenterFunction<Record> RECORD_CENTER = (record, d) -> (record.getCoordinateFromDimension(d) + record.getUpperCoordinateFromDimension(d)) / 2;
+    private static final CenterFunction<Entry> ENTRY_CENTER = (entry, d) -> (entry.getBoundingBox().getLower(d) + entry.getBoundingBox().getUpper(d)) / 2;
+
+    // Builds the tree bottom-up from all the records of the datafile, which are rewritten into a new datafile in
+    // the order of the bulk load method, so the datafile blocks of every leaf are contiguous. The records are
+    // sorted by external merge sort, so only the bulk load memory and the records of one leaf are kept in the
+    // heap, and the nodes hold one entry per datafile block. The nodes and the datafile blocks are filled up to
+    // the fill factor. The records are sorted, the leaves packed and the upper levels tiled by the tasks of a
+    // fork-join pool, and the blocks are written in the order of the records, so the block IDs do not depend on
+    // the threads
+    void bulkLoad() {
+        if (FilesManager.getTotalBlocksInIndexFile() != ROOT_NODE_BLOCK_ID)
+            throw new IllegalStateException("The bulk load needs a new indexfile");
+        int nodeCapacity = Math.max(2, (int) (bulkLoadFillFactor * Node.getMaxEntriesInNode()));
+        System.out.println("Starting " + bulkLoadMethod + " bulk loading for " + (FilesManager.getTotalBlocksInDataFile() - 1) + " datafile blocks");
+        long startTime = System.currentTimeMillis();
 
-                if (writeBuffer.size() >= 500) {
-                    Map<Node, Integer> blockIDs = FilesManager.writeNewIndexFileBlocks(new ArrayList<>(writeBuffer));
-                    for (Node n : writeBuffer) {
-                        n.setNodeBlockId(blockIDs.get(n));
-                    }
-                    writeBuffer.clear();
-                }
-            }
+        ForkJoinPool pool = new ForkJoinPool(bulkLoadThreads);
+        try {
+            buildLevels(nodeCapacity, pool, startTime);
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        if (!writeBuffer.isEmpty()) {
-            Map<Node, Integer> blockIDs = FilesManager.writeNewIndexFileBlocks(writeBuffer);
-            for (Node n : writeBuffer) {
-                n.setNodeBlockId(blockIDs.get(n));
-            }
-            writeBuffer.clear();
+    private void buildLevels(int nodeCapacity, ForkJoinPool pool, long startTime) {
+        ArrayList<long[]> leafBlockRanges;
+        try {
+            if (bulkLoadMethod == BulkLoadMethod.HILBERT)
+                leafBlockRanges = writeHilbertOrderedDataFile(nodeCapacity, pool);
+            else
+                leafBlockRanges = writeSortTileRecursiveDataFile(nodeCapacity, pool);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error sorting the records of the datafile", e);
         }
+        ArrayList<Node> leaves = readLeaves(leafBlockRanges);
 
         long endTime = System.currentTimeMillis();
         System.out.println("Leaf level construction complete in " + (endTime - startTime) + " ms");
 
-        Node root = buildUpperLevels(leafNodes, maxEntries, 2);
-        root.setNodeBlockId(RStarTree.getRootNodeBlockId());
-        FilesManager.writeNewIndexFileBlock(root);
-        this.totalLevels = root.getNodeLevelInTree();
+        ArrayList<List<Node>> levels = new ArrayList<>();
+        levels.add(leaves);
+        for (List<Node> level = leaves; level.size() > 1; level = levels.getLast()) {
+            ArrayList<Entry> entries = new ArrayList<>(level.size());
+            for (int i = 0; i < level.size(); i++) {
+                level.get(i).setNodeBlockId(i); // The position of the child in its level, until the block IDs are given
+                entries.add(new Entry(level.get(i)));
+            }
+            // The nodes of the Hilbert packing are already in the order of the curve and are grouped as they are
+            ArrayList<List<Entry>> runs = new ArrayList<>();
+            if (bulkLoadMethod == BulkLoadMethod.HILBERT)
+                runs.add(entries);
+            else
+                pool.invoke(ForkJoinTask.adapt(() -> sortTileRecursive(entries, nodeCapacity, 0, FilesManager.getDataDimensions(), ENTRY_CENTER, runs)));
+            ArrayList<Node> parents = new ArrayList<>();
+            for (List<Entry> run : runs) {
+                for (int start = 0; start < run.size(); start += nodeCapacity)
+                    parents.add(new Node(levels.size() + 1, new ArrayList<>(run.subList(start, Math.min(start + nodeCapacity, run.size())))));
+            }
+            levels.add(parents);
+        }
+        writeLevels(levels);
+        this.totalLevels = levels.size();
+        FilesManager.setLevelsOfTreeIndex(totalLevels);
     }
 
-    private static Node buildUpperLevels(List<Node> children, int maxEntries, int startLevel) {
-        int level = startLevel;
+    // Sort-Tile-Recursive packing over all the dimensions. The records are sorted into groups of one leaf each,
+    // which are written one after the other, and every group is tiled again into the blocks of the leaf. The
+    // expected records of a block are the average of the datafile, so some groups take more blocks than expected
+    // because of the length of their names: when the nodes are filled completely a group is given one block less
+    // than a full leaf, and a group that still does not fit in one leaf is split into more leaves by readLeaves.
+    // The groups are tiled and packed into blocks by the tasks of the pool, up to two groups per thread ahead of the
+    // group being written, as long as the groups in flight and the next one, expected to be as large as the last,
+    // fit in the share of the bulk load memory given to the groups. Returns the first and after the last datafile
+    // block of every group
+    private static ArrayList<long[]> writeSortTileRecursiveDataFile(int nodeCapacity, ForkJoinPool pool) throws IOException {
+        int dimensions = FilesManager.getDataDimensions();
+        int totalDataBlocks = FilesManager.getTotalBlocksInDataFile() - 1;
+        ArrayList<long[]> leafBlockRanges = new ArrayList<>();
+        // All the records are in the runs of the sorter before the datafile is replaced
+        try (ExternalRecordSorter sorter = createDimensionSorter(0, pool)) {
+            addDataFileRecords(sorter);
+            int recordsPerBlock = (int) Math.max(1, (long) (bulkLoadFillFactor * sorter.getTotalRecords() / Math.max(1, totalDataBlocks)));
+            int recordsPerLeaf = recordsPerBlock * Math.max(1, Math.min(nodeCapacity, Node.getMaxEntriesInNode() - 1));
+            long groupMemory = getBulkLoadMemoryShare(dimensions);
+            FilesManager.createDataFile(dimensions, dataFileWriter -> {
+                ArrayDeque<ForkJoinTask<ArrayList<byte[]>>> pendingLeaves = new ArrayDeque<>();
+                ArrayDeque<Long> pendingLeafBytes = new ArrayDeque<>(); // Estimated bytes of the records of every pending group
+                long[] pendingBytes = new long[1];
+                sortTileRecursive(sorter, recordsPerLeaf, 0, dimensions, pool, leafRecords -> {
+                    long leafBytes = 0;
+                    for (Record record : leafRecords)
+                        leafBytes += ExternalRecordSorter.getSizeInMemory(record, dimensions);
+                    pendingLeaves.add(pool.submit(() -> packLeaf(leafRecords, recordsPerBlock, dimensions, dataFileWriter)));
+                    pendingLeafBytes.add(leafBytes);
+                    pendingBytes[0] += leafBytes;
+                    while (!pendingLeaves.isEmpty() && (pendingLeaves.size() == 2 * pool.getParallelism() || pendingBytes[0] + leafBytes > groupMemory)) {
+                        writeLeafBlocks(pendingLeaves.poll().join(), dataFileWriter, leafBlockRanges);
+                        pendingBytes[0] -= pendingLeafBytes.poll();
+                    }
+                });
+                while (!pendingLeaves.isEmpty())
+                    writeLeafBlocks(pendingLeaves.poll().join(), dataFileWriter, leafBlockRanges);
+            });
+        }
+        return leafBlockRanges;
+    }
+
+    // Tiles the records of a leaf group into the runs of its blocks and returns the blocks they are packed into
+    private static ArrayList<byte[]> packLeaf(ArrayList<Record> leafRecords, int recordsPerBlock, int dimensions, DataFileBulkWriter dataFileWriter) throws IOException {
+        ArrayList<byte[]> blocks = new ArrayList<>();
+        DataBlockPacker packer = dataFileWriter.createPacker(bulkLoadFillFactor, blocks::add);
+        ArrayList<List<Record>> blockRuns = new ArrayList<>();
+        sortTileRecursive(leafRecords, recordsPerBlock, 0, dimensions, RECORD_CENTER, blockRuns);
+        // Every other run is added backwards, so a block going on to the next run continues where it was
+        for (int i = 0; i < blockRuns.size(); i++) {
+            List<Record> blockRun = blockRuns.get(i);
+            for (int j = 0; j < blockRun.size(); j++)
+                packer.addRecord(blockRun.get(i % 2 == 0 ? j : blockRun.size() - 1 - j));
+        }
+        packer.finish();
+        return blocks;
+    }
 
-        while (children.size() > 1) {
-            List<Node> newLevel = new ArrayList<>();
-            List<Node> toFlush = new ArrayList<>();
+    private static void writeLeafBlocks(ArrayList<byte[]> blocks, DataFileBulkWriter dataFileWriter, ArrayList<long[]> leafBlockRanges) throws IOException {
+        long firstBlockId = dataFileWriter.getTotalBlocks();
+        for (byte[] block : blocks)
+            dataFileWriter.writeEncodedBlock(block);
+        leafBlockRanges.add(new long[]{firstBlockId, dataFileWriter.getTotalBlocks()});
+    }
 
-            for (int i = 0; i < children.size(); i += maxEntries) {
-                int end = Math.min(i + maxEntries, children.size());
-                List<Node> group = children.subList(i, end);
-                ArrayList<Entry> entries = new ArrayList<>();
-                for (Node child : group) {
-                    entries.add(new Entry(child));
+    // Hilbert packing: the records are sorted by the Hilbert keys of their centers and packed into the datafile
+    // blocks in that order, so only the last block is not full. Every leaf takes the next blocks. Returns the
+    // first and after the last datafile block of every leaf
+    private static ArrayList<long[]> writeHilbertOrderedDataFile(int nodeCapacity, ForkJoinPool pool) throws IOException {
+        int dimensions = FilesManager.getDataDimensions();
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        // The bounds of the curve are found reading the coordinates in place, before the records are sorted
+        for (long blockId = 1; blockId < FilesManager.getTotalBlocksInDataFile(); blockId++) {
+            DataBlockView block = FilesManager.readDataFileBlockView(blockId);
+            if (block == null)
+                throw new IllegalStateException("Error reading records from datafile");
+            for (int slot = 0; slot < block.getTotalRecords(); slot++) {
+                for (int d = 0; d < dimensions; d++) {
+                    double center = (block.getCoordinate(slot, d) + block.getUpperCoordinate(slot, d)) / 2;
+                    min[d] = Math.min(min[d], center);
+                    max[d] = Math.max(max[d], center);
                 }
+            }
+        }
+        HilbertCurve curve = new HilbertCurve(min, max);
+        ToLongFunction<Record> hilbertKey = record -> {
+            double[] center = new double[dimensions];
+            for (int d = 0; d < dimensions; d++)
+                center[d] = RECORD_CENTER.getCenter(record, d);
+            return curve.getKey(center);
+        };
+
+        long[] blockRange = new long[2];
+        try (ExternalRecordSorter sorter = new ExternalRecordSorter(dimensions, FilesManager.getBlockSize(), hilbertKey, bulkLoadMemory, pool)) {
+            addDataFileRecords(sorter);
+            FilesManager.createDataFile(dimensions, dataFileWriter -> {
+                DataBlockPacker packer = dataFileWriter.createPacker(bulkLoadFillFactor);
+                blockRange[0] = dataFileWriter.getTotalBlocks();
+                Record record;
+                while ((record = sorter.readRecord()) != null)
+                    packer.addRecord(record);
+                packer.finish();
+                blockRange[1] = dataFileWriter.getTotalBlocks();
+            });
+        }
+        ArrayList<long[]> leafBlockRanges = new ArrayList<>();
+        for (long firstBlockId = blockRange[0]; firstBlockId < blockRange[1]; firstBlockId += nodeCapacity)
+            leafBlockRanges.add(new long[]{firstBlockId, Math.min(firstBlockId + nodeCapacity, blockRange[1])});
+        return leafBlockRanges;
+    }
 
-                Node node = new Node(level, entries);
-                toFlush.add(node);
-                newLevel.add(node);
+    // Adds all the records of the datafile to the sorter
+    private static void addDataFileRecords(ExternalRecordSorter sorter) throws IOException {
+        for (long blockId = 1; blockId < FilesManager.getTotalBlocksInDataFile(); blockId++) {
+            ArrayList<Record> blockRecords = FilesManager.readDataFileBlock(blockId);
+            if (blockRecords == null)
+                throw new IllegalStateException("Error reading records from datafile");
+            for (Record record : blockRecords)
+                sorter.add(record);
+        }
+    }
 
-                if (toFlush.size() >= 500) {
-                    Map<Node, Integer> blockIDs = FilesManager.writeNewIndexFileBlocks(new ArrayList<>(toFlush));
-                    for (Node n : toFlush) {
-                        n.setNodeBlockId(blockIDs.get(n));
-                    }
-                    toFlush.clear();
+    // A sorter of the records by their centers in the dimension. The sorters of all the dimensions may be open at
+    // the same time, so each one is given its share of the bulk load memory
+    private static ExternalRecordSorter createDimensionSorter(int dimension, ForkJoinPool pool) {
+        int dimensions = FilesManager.getDataDimensions();
+        return new ExternalRecordSorter(dimensions, FilesManager.getBlockSize(),
+                record -> ExternalRecordSorter.getSortableKey(RECORD_CENTER.getCenter(record, dimension)), getBulkLoadMemoryShare(dimensions), pool);
+    }
+
+    // The Sort-Tile-Recursive bulk load keeps in memory the buffers of the sorters of all the dimensions and the
+    // leaf groups being tiled, so the bulk load memory is split in equal shares between them
+    private static long getBulkLoadMemoryShare(int dimensions) {
+        return bulkLoadMemory / (dimensions + 1);
+    }
+
+    // Writes the records of one leaf group of the Sort-Tile-Recursive packing
+    private interface LeafGroupWriter {
+        void write(ArrayList<Record> records) throws IOException;
+    }
+
+    // Creates the leaves with the entries of the datafile blocks in the given ranges, one leaf per range unless the
+    // blocks of the range do not fit in one node
+    private static ArrayList<Node> readLeaves(ArrayList<long[]> leafBlockRanges) {
+        int maxEntries = Node.getMaxEntriesInNode();
+        ArrayList<Node> leaves = new ArrayList<>();
+        for (long[] blockRange : leafBlockRanges) {
+            int totalBlocks = (int) (blockRange[1] - blockRange[0]);
+            int totalLeaves = (totalBlocks + maxEntries - 1) / maxEntries;
+            int blocksPerLeaf = (totalBlocks + totalLeaves - 1) / totalLeaves;
+            for (long firstBlockId = blockRange[0]; firstBlockId < blockRange[1]; firstBlockId += blocksPerLeaf) {
+                ArrayList<Entry> entries = new ArrayList<>();
+                for (long blockId = firstBlockId; blockId < Math.min(firstBlockId + blocksPerLeaf, blockRange[1]); blockId++) {
+                    ArrayList<Record> blockRecords = FilesManager.readDataFileBlock(blockId);
+                    if (blockRecords == null)
+                        throw new IllegalStateException("Error reading records from datafile");
+                    entries.add(new LeafEntry(blockId, new BoundingBox(Bounds.findMinimumBoundsFromRecords(blockRecords))));
                 }
+                leaves.add(new Node(LEAF_LEVEL, entries));
             }
+        }
+        if (leaves.isEmpty())
+            leaves.add(new Node(LEAF_LEVEL));
+        return leaves;
+    }
 
-            if (!toFlush.isEmpty()) {
-                Map<Node, Integer> blockIDs = FilesManager.writeNewIndexFileBlocks(toFlush);
-                for (Node n : toFlush) {
-                    n.setNodeBlockId(blockIDs.get(n));
+    // Writes the nodes of the levels (from the leaves to the root), whose entries point to the positions of their
+    // children in the level below. The root gets the root block ID and the other nodes the next block IDs, level
+    // by level from the top
+    private static void writeLevels(ArrayList<List<Node>> levels) {
+        int[][] blockIds = new int[levels.size()][];
+        int nextBlockId = ROOT_NODE_BLOCK_ID;
+        for (int l = levels.size() - 1; l >= 0; l--) {
+            blockIds[l] = new int[levels.get(l).size()];
+            for (int i = 0; i < blockIds[l].length; i++)
+                blockIds[l][i] = nextBlockId++;
+        }
+        for (int l = levels.size() - 1; l >= 0; l--) {
+            for (int i = 0; i < blockIds[l].length; i++) {
+                Node node = levels.get(l).get(i);
+                node.setNodeBlockId(blockIds[l][i]);
+                if (l > 0) {
+                    for (Entry entry : node.getEntries())
+                        entry.setChildNodeBlockId((long) blockIds[l - 1][(int) (long) entry.getChildNodeBlockId()]);
                 }
-                toFlush.clear();
+                FilesManager.writeNewIndexFileBlock(node);
             }
+        }
+    }
+
+    // Sort-Tile-Recursive ordering of the items: they are sorted by the first dimension and cut into slabs of
+    // whole tiles, and every slab is ordered in the same way by the next dimensions, until the slabs of the last
+    // dimension, which are added to the runs sorted by it. Cutting the runs into groups of capacity items gives
+    // the tiles of the STR packing. Called by a task of a fork-join pool, large lists are sorted in parallel and
+    // their slabs are tiled by tasks of their own, with the runs of the slabs added in the order of the slabs
+    private static <T> void sortTileRecursive(List<T> items, int capacity, int dimension, int dimensions, CenterFunction<T> center, List<List<T>> runs) {
+        boolean parallel = ForkJoinTask.inForkJoinPool() && items.size() >= PARALLEL_TILING_SIZE;
+        Comparator<T> byCenter = Comparator.comparingDouble(item -> center.getCenter(item, dimension));
+        if (parallel) {
+            @SuppressWarnings("unchecked")
+            T[] sortedItems = (T[]) items.toArray();
+            Arrays.parallelSort(sortedItems, byCenter);
+            for (int i = 0; i < sortedItems.length; i++)
+                items.set(i, sortedItems[i]);
+        } else {
+            items.sort(byCenter);
+        }
+        int totalTiles = (items.size() + capacity - 1) / capacity;
+        if (dimension == dimensions - 1 || totalTiles <= 1) {
+            runs.add(items);
+            return;
+        }
+        int totalSlabs = (int) Math.ceil(Math.pow(totalTiles, 1.0 / (dimensions - dimension)));
+        int slabSize = capacity * ((totalTiles + totalSlabs - 1) / totalSlabs);
+        if (!parallel) {
+            for (int start = 0; start < items.size(); start += slabSize)
+                sortTileRecursive(items.subList(start, Math.min(start + slabSize, items.size())), capacity, dimension + 1, dimensions, center, runs);
+            return;
+        }
+        // Every task sorts a copy of its slab, so no task changes the list the others are copied from
+        ArrayList<List<List<T>>> slabRuns = new ArrayList<>();
+        ArrayList<ForkJoinTask<?>> slabTasks = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += slabSize) {
+            ArrayList<T> slab = new ArrayList<>(items.subList(start, Math.min(start + slabSize, items.size())));
+            ArrayList<List<T>> runsOfSlab = new ArrayList<>();
+            slabRuns.add(runsOfSlab);
+            slabTasks.add(ForkJoinTask.adapt(() -> sortTileRecursive(slab, capacity, dimension + 1, dimensions, center, runsOfSlab)));
+        }
+        ForkJoinTask.invokeAll(slabTasks);
+        for (List<List<T>> runsOfSlab : slabRuns)
+            runs.addAll(runsOfSlab);
+    }
 
-            children = newLevel;
-            level++;
+    // Sort-Tile-Recursive ordering of the records coming sorted by a dimension out of an external sorter: they are
+    // cut into slabs of whole tiles, every slab is sorted by the next dimension in a sorter of its own and ordered
+    // in the same way, and the slabs of the last dimension are cut into groups of capacity records, the only
+    // records kept in memory besides the buffers of the sorters, which are given to the writer. The groups are
+    // charged to their share of the bulk load memory, but a group is always read whole: the memory bound stops
+    // applying when the records of a single leaf (at most M full blocks of them) are more than that share
+    private static void sortTileRecursive(ExternalRecordSorter sorted, int capacity, int dimension, int dimensions, ForkJoinPool pool, LeafGroupWriter writer) throws IOException {
+        long totalRecords = sorted.getTotalRecords();
+        long totalTiles = (totalRecords + capacity - 1) / capacity;
+        if (dimension == dimensions - 1 || totalTiles <= 1) {
+            ArrayList<Record> group = new ArrayList<>();
+            Record record;
+            while ((record = sorted.readRecord()) != null) {
+                group.add(record);
+                if (group.size() == capacity) {
+                    writer.write(group);
+                    group = new ArrayList<>();
+                }
+            }
+            if (!group.isEmpty())
+                writer.write(group);
+            return;
+        }
+        long totalSlabs = (long) Math.ceil(Math.pow(totalTiles, 1.0 / (dimensions - dimension)));
+        long slabSize = capacity * ((totalTiles + totalSlabs - 1) / totalSlabs);
+        for (long start = 0; start < totalRecords; start += slabSize) {
+            try (ExternalRecordSorter slab = createDimensionSorter(dimension + 1, pool)) {
+                for (long i = start; i < Math.min(start + slabSize, totalRecords); i++)
+                    slab.add(sorted.readRecord());
+                sortTileRecursive(slab, capacity, dimension + 1, dimensions, pool, writer);
+            }
         }
-        FilesManager.setLevelsOfTreeIndex(level - 1);
-        return children.get(0);
     }
 }
 
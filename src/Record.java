@@ -1,17 +1,48 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 public class Record implements Serializable{
     private long recordID; // unique ID
     private String name; // can be a location name or an empty string
-    private ArrayList<Double> coordinates; // record coordinates
+    private double[] coordinates; // record coordinates, the lower corner of a record with an extent
+    private double[] upperCoordinates; // upper corner of a record with an extent (a rectangle), null for a point
 
-    public Record(long recordID, String name, ArrayList<Double> coordinates){
+    // Java serialization is only used for reading the records of the legacy datafiles, which stored the coordinates
+    // as an ArrayList<Double>
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("recordID", long.class),
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("coordinates", ArrayList.class)
+    };
+
+    public Record(long recordID, String name, double[] coordinates){
         this.recordID = recordID;
         this.name = name;
         this.coordinates = coordinates;
     }
 
+    // A record with an extent, such as an OSM way, covering the box from its lower to its upper coordinates. If the
+    // corners are the same the record is a point
+    public Record(long recordID, String name, double[] lowerCoordinates, double[] upperCoordinates){
+        this(recordID, name, lowerCoordinates);
+        if (lowerCoordinates.length != upperCoordinates.length)
+            throw new IllegalArgumentException("The corners of the record have different dimensions");
+        for (int d = 0; d < lowerCoordinates.length; d++) {
+            if (lowerCoordinates[d] > upperCoordinates[d])
+                throw new IllegalArgumentException("The lower coordinates of the record cannot be bigger than the upper");
+        }
+        if (!Arrays.equals(lowerCoordinates, upperCoordinates))
+            this.upperCoordinates = upperCoordinates;
+    }
+
+    public Record(long recordID, String name, ArrayList<Double> coordinates){
+        this(recordID, name, toArray(coordinates));
+    }
+
     public Record(String recordInString) {
         String[] stringArray = recordInString.split(FilesManager.getDelimiter());
 
@@ -21,12 +52,19 @@ public class Record implements Serializable{
         recordID = Long.parseLong(stringArray[0]);
         name = stringArray[1];
 
-        coordinates = new ArrayList<>();
+        coordinates = new double[stringArray.length - 2];
         for (int i = 2; i < stringArray.length; i++) {
-            coordinates.add(Double.parseDouble(stringArray[i]));
+            coordinates[i - 2] = Double.parseDouble(stringArray[i]);
         }
     }
 
+    private static double[] toArray(ArrayList<Double> coordinates) {
+        double[] array = new double[coordinates.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = coordinates.get(i);
+        return array;
+    }
+
 
     // Getters
     public long getRecordID(){
@@ -37,19 +75,63 @@ public class Record implements Serializable{
         return  name;
     }
 
-    public ArrayList<Double> getCoordinates() { return coordinates;}
+    // Returns a copy of the coordinates as a list, the queries and the tree use getCoordinateArray instead
+    public ArrayList<Double> getCoordinates() {
+        ArrayList<Double> coordinateList = new ArrayList<>(coordinates.length);
+        for (double coordinate : coordinates)
+            coordinateList.add(coordinate);
+        return coordinateList;
+    }
+
+    // The coordinates of the record, which must not be modified
+    double[] getCoordinateArray() {
+        return coordinates;
+    }
+
+    int getDimensions() {
+        return coordinates.length;
+    }
 
     public double getCoordinateFromDimension(int dimension){
-        return  coordinates.get(dimension);
+        return  coordinates[dimension];
+    }
+
+    boolean hasExtent() {
+        return upperCoordinates != null;
+    }
+
+    // The upper corner of the record, which is its coordinates if it is a point and must not be modified
+    double[] getUpperCoordinateArray() {
+        return upperCoordinates == null ? coordinates : upperCoordinates;
+    }
+
+    double getUpperCoordinateFromDimension(int dimension) {
+        return upperCoordinates == null ? coordinates[dimension] : upperCoordinates[dimension];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        recordID = fields.get("recordID", 0L);
+        name = (String) fields.get("name", null);
+        coordinates = toArray((ArrayList<Double>) fields.get("coordinates", null));
     }
 
     @Override
     public String toString() {
         StringBuilder recordToString = new StringBuilder("ID: " + recordID + ", Name: " + name+ ", Coordinates: ");
-        for (int i = 0; i < coordinates.size(); i++) {
+        for (int i = 0; i < coordinates.length; i++) {
             if(i > 0)
                 recordToString.append(", ");
-            recordToString.append(coordinates.get(i));
+            recordToString.append(coordinates[i]);
+        }
+        if (upperCoordinates != null) {
+            recordToString.append(", Upper Coordinates: ");
+            for (int i = 0; i < upperCoordinates.length; i++) {
+                if(i > 0)
+                    recordToString.append(", ");
+                recordToString.append(upperCoordinates[i]);
+            }
         }
         return recordToString.toString();
     }
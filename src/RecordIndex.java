@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Secondary index mapping every record ID to the datafile block holding the record, stored in its own file as a
+// paged hash index. Block 0 keeps the metadata [dimensions, block size, total buckets, total pages, datafile blocks]
+// and page b + 1 is the primary page of bucket b. When a bucket does not fit in its page, the remaining entries
+// are kept in overflow pages appended at the end of the file and chained from the primary page, so a lookup
+// usually reads a single page. When the overflow pages become as many as the buckets, the index is rebuilt with
+// enough buckets for the current amount of records
+class RecordIndex {
+    static final long NOT_FOUND = -1;
+    private static final int NO_OVERFLOW_PAGE = 0;
+    private static final double BUILD_FILL_FACTOR = 0.7; // Fill of the bucket pages when the index is built
+    private static final int BUILD_BATCH_ENTRIES = 4 * 1024 * 1024; // Entries kept in memory at once while building
+
+    private final String pathToFile;
+    private final int dimensions;
+    private final int blockSize;
+    private final int pageCapacity; // Entries that fit in one page
+    private final int totalBuckets; // Always a power of two
+    private int totalPages; // Including the metadata block
+    private int dataFileBlocks; // Blocks of the datafile when the index was last updated, used to detect a stale index
+
+    private RecordIndex(String pathToFile, int dimensions, int blockSize, int totalBuckets, int totalPages, int dataFileBlocks) {
+        this.pathToFile = pathToFile;
+        this.dimensions = dimensions;
+        this.blockSize = blockSize;
+        this.pageCapacity = BlockFormat.getMaxRecordIndexEntries(blockSize);
+        this.totalBuckets = totalBuckets;
+        this.totalPages = totalPages;
+        this.dataFileBlocks = dataFileBlocks;
+    }
+
+    // Opens an existing record index, returning null if the file does not exist or cannot be used
+    static RecordIndex open(String pathToFile, int dimensions, int blockSize) {
+        if (!Files.exists(Paths.get(pathToFile)))
+            return null;
+        try {
+            ArrayList<Integer> metaData = BlockFormat.decodeMetaData(ByteBuffer.wrap(FilesManager.readBlock(pathToFile, 0)));
+            if (metaData.size() < 5 || metaData.get(0) != dimensions || metaData.get(1) != blockSize)
+                return null;
+            return new RecordIndex(pathToFile, dimensions, blockSize, metaData.get(2), metaData.get(3), metaData.get(4));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Builds a new record index from the records of the first dataFileBlocks blocks of the datafile.
+    // The entries are distributed to their buckets in batches, scanning the datafile once per batch
+    static RecordIndex build(String pathToFile, int dimensions, int blockSize, int dataFileBlocks) throws IOException {
+        long totalRecords = 0;
+        for (long blockId = 1; blockId < dataFileBlocks; blockId++) {
+            DataBlockView block = FilesManager.readDataFileBlockView(blockId);
+            if (block != null)
+                totalRecords += block.getTotalRecords();
+        }
+        int pageCapacity = BlockFormat.getMaxRecordIndexEntries(blockSize);
+        int totalBuckets = Integer.highestOneBit((int) Math.max(1, Math.ceil(totalRecords / (pageCapacity * BUILD_FILL_FACTOR))) * 2 - 1);
+
+        FilesManager.deleteFile(pathToFile);
+        RecordIndex recordIndex = new RecordIndex(pathToFile, dimensions, blockSize, totalBuckets, totalBuckets + 1, dataFileBlocks);
+        int bucketsPerBatch = (int) Math.max(1, Math.min(totalBuckets, (long) totalBuckets * BUILD_BATCH_ENTRIES / Math.max(1, totalRecords)));
+        for (int firstBucket = 0; firstBucket < totalBuckets; firstBucket += bucketsPerBatch)
+            recordIndex.buildBuckets(firstBucket, Math.min(firstBucket + bucketsPerBatch, totalBuckets));
+        recordIndex.writeMetaData();
+        return recordIndex;
+    }
+
+    // Writes the pages of the buckets in [firstBucket, lastBucket) with the entries of the records hashed to them
+    private void buildBuckets(int firstBucket, int lastBucket) throws IOException {
+        int batchBuckets = lastBucket - firstBucket;
+        long[][] bucketEntries = new long[batchBuckets][];
+        int[] bucketSizes = new int[batchBuckets];
+        for (long blockId = 1; blockId < dataFileBlocks; blockId++) {
+            DataBlockView block = FilesManager.readDataFileBlockView(blockId);
+            if (block == null)
+                continue;
+            for (int slot = 0; slot < block.getTotalRecords(); slot++) {
+                long recordId = block.getRecordID(slot);
+                int bucket = getBucket(recordId) - firstBucket;
+                if (bucket < 0 || bucket >= batchBuckets)
+                    continue;
+                if (bucketEntries[bucket] == null)
+                    bucketEntries[bucket] = new long[2 * pageCapacity];
+                else if (bucketEntries[bucket].length == 2 * bucketSizes[bucket])
+                    bucketEntries[bucket] = Arrays.copyOf(bucketEntries[bucket], 4 * bucketSizes[bucket]);
+                bucketEntries[bucket][2 * bucketSizes[bucket]] = recordId;
+                bucketEntries[bucket][2 * bucketSizes[bucket] + 1] = blockId;
+                bucketSizes[bucket]++;
+            }
+        }
+
+        for (int bucket = 0; bucket < batchBuckets; bucket++) {
+            long pageId = firstBucket + bucket + 1;
+            int written = 0;
+            do {
+                ByteBuffer page = BlockFormat.createRecordIndexPage(dimensions, blockSize);
+                int entries = Math.min(pageCapacity, bucketSizes[bucket] - written);
+                for (int i = 0; i < entries; i++)
+                    setEntry(page, i, bucketEntries[bucket][2 * (written + i)], bucketEntries[bucket][2 * (written + i) + 1]);
+                setEntryCount(page, entries);
+                written += entries;
+                long nextPageId = written < bucketSizes[bucket] ? totalPages++ : NO_OVERFLOW_PAGE;
+                setNextPage(page, (int) nextPageId);
+                FilesManager.writeBlock(pathToFile, pageId, page.array());
+                pageId = nextPageId;
+            } while (written < bucketSizes[bucket]);
+        }
+    }
+
+    private void writeMetaData() throws IOException {
+        ArrayList<Integer> metaData = new ArrayList<>();
+        metaData.add(dimensions);
+        metaData.add(blockSize);
+        metaData.add(totalBuckets);
+        metaData.add(totalPages);
+        metaData.add(dataFileBlocks);
+        FilesManager.writeBlock(pathToFile, 0, BlockFormat.encodeMetaData(metaData, blockSize));
+    }
+
+    // Spreads the bits of the record ID (finalizer of the 64-bit MurmurHash3), since OSM IDs are mostly sequential
+    private int getBucket(long recordId) {
+        long hash = recordId;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) (hash & (totalBuckets - 1));
+    }
+
+    private ByteBuffer readPage(long pageId) throws IOException {
+        ByteBuffer page = ByteBuffer.wrap(FilesManager.readBlock(pathToFile, pageId));
+        BlockFormat.readRecordIndexPageHeader(page);
+        return page;
+    }
+
+    private static int getEntryCount(ByteBuffer page) {
+        return page.getInt(BlockFormat.HEADER_SIZE);
+    }
+
+    private static void setEntryCount(ByteBuffer page, int entries) {
+        page.putInt(BlockFormat.HEADER_SIZE, entries);
+    }
+
+    private static int getNextPage(ByteBuffer page) {
+        return page.getInt(BlockFormat.HEADER_SIZE + Integer.BYTES);
+    }
+
+    private static void setNextPage(ByteBuffer page, int nextPageId) {
+        page.putInt(BlockFormat.HEADER_SIZE + Integer.BYTES, nextPageId);
+    }
+
+    private static int getEntryOffset(int entry) {
+        return BlockFormat.RECORD_INDEX_HEADER_SIZE + entry * BlockFormat.RECORD_INDEX_ENTRY_SIZE;
+    }
+
+    private static long getRecordId(ByteBuffer page, int entry) {
+        return page.getLong(getEntryOffset(entry));
+    }
+
+    private static long getDataBlockId(ByteBuffer page, int entry) {
+        return page.getLong(getEntryOffset(entry) + Long.BYTES);
+    }
+
+    private static void setEntry(ByteBuffer page, int entry, long recordId, long dataBlockId) {
+        page.putLong(getEntryOffset(entry), recordId);
+        page.putLong(getEntryOffset(entry) + Long.BYTES, dataBlockId);
+    }
+
+    // Returns the datafile block ID of the record, or NOT_FOUND if the record is not in the index
+    long get(long recordId) throws IOException {
+        long pageId = getBucket(recordId) + 1;
+        while (pageId != NO_OVERFLOW_PAGE) {
+            ByteBuffer page = readPage(pageId);
+            for (int i = 0; i < getEntryCount(page); i++) {
+                if (getRecordId(page, i) == recordId)
+                    return getDataBlockId(page, i);
+            }
+            pageId = getNextPage(page);
+        }
+        return NOT_FOUND;
+    }
+
+    // Adds the record to the index or moves it to another datafile block
+    void put(long recordId, long dataBlockId) throws IOException {
+        long pageId = getBucket(recordId) + 1;
+        long freePageId = NO_OVERFLOW_PAGE;
+        ByteBuffer freePage = null;
+        ByteBuffer page;
+        while (true) {
+            page = readPage(pageId);
+            int entries = getEntryCount(page);
+            for (int i = 0; i < entries; i++) {
+                if (getRecordId(page, i) == recordId) {
+                    setEntry(page, i, recordId, dataBlockId);
+                    FilesManager.writeBlock(pathToFile, pageId, page.array());
+                    return;
+                }
+            }
+            if (freePage == null && entries < pageCapacity) {
+                freePageId = pageId;
+                freePage = page;
+            }
+            if (getNextPage(page) == NO_OVERFLOW_PAGE)
+                break;
+            pageId = getNextPage(page);
+        }
+
+        if (freePage == null) {
+            // Every page of the bucket is full, a new overflow page is chained after the last one
+            freePageId = totalPages++;
+            freePage = BlockFormat.createRecordIndexPage(dimensions, blockSize);
+            setNextPage(page, (int) freePageId);
+            FilesManager.writeBlock(pathToFile, pageId, page.array());
+            writeMetaData();
+        }
+        int entries = getEntryCount(freePage);
+        setEntry(freePage, entries, recordId, dataBlockId);
+        setEntryCount(freePage, entries + 1);
+        FilesManager.writeBlock(pathToFile, freePageId, freePage.array());
+    }
+
+    // Removes the record from the index, returning false if it was not in it.
+    // The last entry of the page takes the place of the removed one
+    boolean remove(long recordId) throws IOException {
+        long pageId = getBucket(recordId) + 1;
+        while (pageId != NO_OVERFLOW_PAGE) {
+            ByteBuffer page = readPage(pageId);
+            int entries = getEntryCount(page);
+            for (int i = 0; i < entries; i++) {
+                if (getRecordId(page, i) == recordId) {
+                    setEntry(page, i, getRecordId(page, entries - 1), getDataBlockId(page, entries - 1));
+                    setEntryCount(page, entries - 1);
+                    FilesManager.writeBlock(pathToFile, pageId, page.array());
+                    return true;
+                }
+            }
+            pageId = getNextPage(page);
+        }
+        return false;
+    }
+
+    // True when the buckets have as many overflow pages as primary pages, so the index should be rebuilt larger
+    boolean needsRebuild() {
+        return totalPages - 1 - totalBuckets >= totalBuckets;
+    }
+
+    int getDataFileBlocks() {
+        return dataFileBlocks;
+    }
+
+    void setDataFileBlocks(int dataFileBlocks) throws IOException {
+        if (this.dataFileBlocks == dataFileBlocks)
+            return;
+        this.dataFileBlocks = dataFileBlocks;
+        writeMetaData();
+    }
+
+    int getTotalBuckets() {
+        return totalBuckets;
+    }
+
+    int getTotalPages() {
+        return totalPages;
+    }
+}
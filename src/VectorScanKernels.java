@@ -0,0 +1,83 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Kernels of the scan operators of DataBlockScanner on the Vector API (the jdk.incubator.vector module), which
+// compare and subtract whole vectors of coordinates with the SIMD instructions of the processor. Every kernel
+// works on the vectors of the preferred length that fit in the column and finishes the rest of it with the scalar
+// loop, and gives the same results as the scalar loops of DataBlockScanner: the distances are summed in the same
+// order, without fused multiply-adds. The class is loaded only when the module is, so the code using it has to
+// check DataBlockScanner.isVectorApiAvailable() first
+class VectorScanKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // Selects the slots of the first totalRecords records whose [value, upper value] overlaps [lower, upper],
+    // writing them to selection in increasing order, and returns how many they are
+    static int select(double[] values, double[] upperValues, double lower, double upper, int totalRecords, int[] selection) {
+        int selected = 0;
+        int slot = 0;
+        for (int bound = SPECIES.loopBound(totalRecords); slot < bound; slot += SPECIES.length()) {
+            DoubleVector lowerVector = DoubleVector.fromArray(SPECIES, values, slot);
+            DoubleVector upperVector = upperValues == values ? lowerVector : DoubleVector.fromArray(SPECIES, upperValues, slot);
+            VectorMask<Double> overlaps = upperVector.compare(VectorOperators.GE, lower).and(lowerVector.compare(VectorOperators.LE, upper));
+            for (long lanes = overlaps.toLong(); lanes != 0; lanes &= lanes - 1)
+                selection[selected++] = slot + Long.numberOfTrailingZeros(lanes);
+        }
+        for (; slot < totalRecords; slot++) {
+            selection[selected] = slot;
+            selected += upperValues[slot] >= lower && values[slot] <= upper ? 1 : 0;
+        }
+        return selected;
+    }
+
+    // Keeps the selected slots whose [value, upper value] overlaps [lower, upper], in the same order at the start
+    // of selection, and returns how many they are. The coordinates of the slots are gathered into the vectors
+    static int refineSelection(double[] values, double[] upperValues, double lower, double upper, int[] selection, int selected) {
+        int kept = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(selected); i < bound; i += SPECIES.length()) {
+            DoubleVector lowerVector = DoubleVector.fromArray(SPECIES, values, 0, selection, i);
+            DoubleVector upperVector = upperValues == values ? lowerVector : DoubleVector.fromArray(SPECIES, upperValues, 0, selection, i);
+            VectorMask<Double> overlaps = upperVector.compare(VectorOperators.GE, lower).and(lowerVector.compare(VectorOperators.LE, upper));
+            // kept never passes the position of the lane being kept, so no slot is overwritten before it is read
+            for (long lanes = overlaps.toLong(); lanes != 0; lanes &= lanes - 1)
+                selection[kept++] = selection[i + Long.numberOfTrailingZeros(lanes)];
+        }
+        for (; i < selected; i++) {
+            int slot = selection[i];
+            selection[kept] = slot;
+            kept += upperValues[slot] >= lower && values[slot] <= upper ? 1 : 0;
+        }
+        return kept;
+    }
+
+    // Adds the squared distance of every coordinate from the coordinate of the point to the distances
+    static void addSquaredDistances(double[] values, double coordinate, int totalRecords, double[] distances) {
+        int slot = 0;
+        for (int bound = SPECIES.loopBound(totalRecords); slot < bound; slot += SPECIES.length()) {
+            DoubleVector difference = DoubleVector.fromArray(SPECIES, values, slot).sub(coordinate);
+            DoubleVector.fromArray(SPECIES, distances, slot).add(difference.mul(difference)).intoArray(distances, slot);
+        }
+        for (; slot < totalRecords; slot++) {
+            double difference = values[slot] - coordinate;
+            distances[slot] += difference * difference;
+        }
+    }
+
+    // Adds the squared distance of every [value, upper value] interval from the coordinate of the point to the
+    // distances, which is zero for the intervals containing the coordinate
+    static void addSquaredDistances(double[] values, double[] upperValues, double coordinate, int totalRecords, double[] distances) {
+        int slot = 0;
+        for (int bound = SPECIES.loopBound(totalRecords); slot < bound; slot += SPECIES.length()) {
+            DoubleVector below = DoubleVector.fromArray(SPECIES, values, slot).sub(coordinate);
+            DoubleVector above = DoubleVector.broadcast(SPECIES, coordinate).sub(DoubleVector.fromArray(SPECIES, upperValues, slot));
+            DoubleVector difference = below.max(above).max(0);
+            DoubleVector.fromArray(SPECIES, distances, slot).add(difference.mul(difference)).intoArray(distances, slot);
+        }
+        for (; slot < totalRecords; slot++) {
+            double difference = Math.max(0, Math.max(values[slot] - coordinate, coordinate - upperValues[slot]));
+            distances[slot] += difference * difference;
+        }
+    }
+}
@@ -21,29 +21,27 @@ class WorstNearestNeighboursQuery {
         });
     }
 
-    private double findEuclideanDistance(ArrayList<Double> x, ArrayList<Double> y) {
-        double sum = 0;
-        for (int i = 0; i < x.size(); i++) {
-            double diff = x.get(i) - y.get(i);
-            sum += diff * diff;
-        }
-        return Math.sqrt(sum);
-    }
-
+    // The distances of the records of each block are computed on its coordinate columns, and a record is only
+    // materialized when it becomes one of the k nearest so far
     private void searchNeighbours() {
         int totalBlocks = FilesManager.getTotalBlocksInDataFile();
+        double[] point = new double[target.size()];
+        for (int i = 0; i < point.length; i++)
+            point[i] = target.get(i);
+        DataBlockScanner scanner = new DataBlockScanner();
         for (int blockId = 1; blockId < totalBlocks; blockId++) {
-            ArrayList<Record> recordsInBlock = FilesManager.readDataFileBlock(blockId);
-            if (recordsInBlock == null) continue;
+            DataBlockView block = FilesManager.readDataFileBlockView(blockId);
+            if (block == null) continue;
 
-            for (Record record : recordsInBlock) {
-                double distance = findEuclideanDistance(record.getCoordinates(), target);
+            double[] distances = scanner.computeDistances(block, point);
+            for (int slot = 0; slot < block.getTotalRecords(); slot++) {
+                double distance = distances[slot];
 
                 if (nearestNeighbours.size() < k) {
-                    nearestNeighbours.add(new RecordDistancePair(record, distance));
+                    nearestNeighbours.add(new RecordDistancePair(block.getRecord(slot), distance));
                 } else if (distance < nearestNeighbours.peek().getDistance()) {
                     nearestNeighbours.poll();
-                    nearestNeighbours.add(new RecordDistancePair(record, distance));
+                    nearestNeighbours.add(new RecordDistancePair(block.getRecord(slot), distance));
                 }
             }
         }
@@ -2,17 +2,7 @@ import  java.util.ArrayList;
 
 public class WorstRangeQuery {
 
-    //Simple helper method that shows if the coords provided exist between the minCoords and maxCoords provided
-    private static boolean inRange(ArrayList<Double> coords, double[] minCoords, double[] maxCoords) {
-        for (int i = 0; i < coords.size(); i++) {
-            if (coords.get(i) < minCoords[i] || coords.get(i) > maxCoords[i]) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    //Performs a linear scan of the entire data file
+    //Performs a linear scan of the entire data file, selecting the records in range on the coordinate columns of each block
     public static ArrayList<Record> run(BoundingBox queryBB){
         ArrayList<Record> results = new ArrayList<>();
         int totalBlocks = FilesManager.getTotalBlocksInDataFile();
@@ -27,14 +17,15 @@ public class WorstRangeQuery {
             minCoord[i]= bounds.getLower();
             maxCoord[i]= bounds.getUpper();
         }
+        DataBlockScanner scanner = new DataBlockScanner();
         for(int blockId=1; blockId<totalBlocks; blockId++){
-            ArrayList<Record> records = FilesManager.readDataFileBlock(blockId);
-            if(records == null)
+            DataBlockView block = FilesManager.readDataFileBlockView(blockId);
+            if(block == null)
                 continue;
-            for(Record record : records){
-                if(inRange(record.getCoordinates(), minCoord, maxCoord)){
-                    results.add(record);
-                }
+            int selected = scanner.selectInRange(block, minCoord, maxCoord);
+            int[] selection = scanner.getSelection();
+            for(int i = 0; i < selected; i++){
+                results.add(block.getRecord(selection[i]));
             }
         }
         return results;
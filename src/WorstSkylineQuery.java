@@ -1,16 +1,16 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class WorstSkylineQuery {
-    // Simple helper method to check if one record X dominates a second record Y
-    private static boolean dominates(Record x, Record y) {
+    // Simple helper method to check if record x dominates record y, given the coordinate columns of all records
+    // (the lower corners of the records with extents)
+    private static boolean dominates(double[][] coordinates, int x, int y) {
         boolean flag = false;
-        ArrayList<Double> coordsX = x.getCoordinates();
-        ArrayList<Double> coordsY = y.getCoordinates();
 
-        for (int i = 0; i < coordsX.size(); i++) {
-            if (coordsX.get(i) > coordsY.get(i)) {
+        for (int i = 0; i < coordinates.length; i++) {
+            if (coordinates[i][x] > coordinates[i][y]) {
                 return false;
-            } else if (coordsX.get(i) < coordsY.get(i)) {
+            } else if (coordinates[i][x] < coordinates[i][y]) {
                 flag = true;
             }
         }
@@ -22,30 +22,49 @@ public class WorstSkylineQuery {
 
         System.out.println("[🧮] Calculating Linear Skyline...");
         long startTime = System.currentTimeMillis();
-        // datafile loading
-        ArrayList<Record> allRecords = new ArrayList<>();
+        // datafile loading: only the coordinate columns are loaded, along with the block and the slot of every
+        // record, and the records of the skyline are materialized at the end
+        int dims = FilesManager.getDataDimensions();
+        double[][] coordinates = new double[dims][1024];
+        int[] blockIds = new int[1024];
+        int[] slots = new int[1024];
+        int total = 0;
+        DataBlockScanner scanner = new DataBlockScanner();
         int totalBlocks = FilesManager.getTotalBlocksInDataFile();
         for (int i = 1; i < totalBlocks; i++) {
-            ArrayList<Record> blockRecords = FilesManager.readDataFileBlock(i);
-            if (blockRecords != null)
-                allRecords.addAll(blockRecords);
+            DataBlockView block = FilesManager.readDataFileBlockView(i);
+            if (block == null)
+                continue;
+            int blockRecords = block.getTotalRecords();
+            if (total + blockRecords > blockIds.length) {
+                int capacity = Math.max(2 * blockIds.length, total + blockRecords);
+                for (int d = 0; d < dims; d++)
+                    coordinates[d] = Arrays.copyOf(coordinates[d], capacity);
+                blockIds = Arrays.copyOf(blockIds, capacity);
+                slots = Arrays.copyOf(slots, capacity);
+            }
+            for (int d = 0; d < dims; d++)
+                scanner.copyCoordinateColumn(block, d, coordinates[d], total);
+            for (int slot = 0; slot < blockRecords; slot++) {
+                blockIds[total + slot] = i;
+                slots[total + slot] = slot;
+            }
+            total += blockRecords;
         }
 
-        int total = allRecords.size();
         System.out.println("[📚] Total records loaded: " + total);
         System.out.println();
         // Skyline calculation
         for (int i = 0; i < total; i++) {
-            Record candidate = allRecords.get(i);
             boolean dominated = false;
-            for (Record other : allRecords) {
-                if (dominates(other, candidate)) {
+            for (int other = 0; other < total; other++) {
+                if (dominates(coordinates, other, i)) {
                     dominated = true;
                     break;
                 }
             }
             if (!dominated) {
-                skyline.add(candidate);
+                skyline.add(FilesManager.readDataFileBlockView(blockIds[i]).getRecord(slots[i]));
             }
             // Progress Report
             if ((i+1) % 50000 == 0 || i+1 == total) {
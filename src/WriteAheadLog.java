@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Redo log making the block writes of the datafile, the indexfile and their companion files atomic.
+// The written blocks are not changed in their files right away: their new contents (after-images) are kept as
+// pending blocks of the current batch, first in memory and then in the log file when they exceed the memory limit,
+// and the reads of these blocks return the pending contents. Committing the batch appends a commit record to the
+// log and forces it to the disk once for the whole batch, and only then the pending blocks are written to their
+// files and the log is emptied. If the program stops before the commit record reaches the disk the files keep the
+// state of the previous commit; if it stops while the blocks are written to their files, recovery writes them again
+// from the log. Deleting a file is not part of the batch, its pending blocks are only dropped from the batch.
+// Every log record is followed by its CRC32, so a partially written record ends the log
+//  - Block record:   type (byte), path length (short), path (UTF-8), block ID (long), block length (int), block
+//  - Discard record: type (byte), path length (short), path (UTF-8), the blocks of the file logged before are dropped
+//  - Commit record:  type (byte), blocks in the batch (int)
+class WriteAheadLog {
+    private static final byte BLOCK_RECORD = 1;
+    private static final byte COMMIT_RECORD = 2;
+    private static final byte DISCARD_RECORD = 3;
+    private static final long MAX_PENDING_BYTES_IN_MEMORY = 32 * 1024 * 1024;
+
+    // A block written during the current batch, kept in memory or at an offset of the log file
+    private static class PendingBlock {
+        private byte[] block;
+        private long logOffset;
+
+        PendingBlock(byte[] block) {
+            this.block = block;
+        }
+    }
+
+    private final Path pathToLog;
+    private final int blockSize;
+    private final Map<String, TreeMap<Long, PendingBlock>> pendingBlocks = new HashMap<>(); // Per file, by block ID
+    private final ArrayList<String> inMemoryPaths = new ArrayList<>(); // Blocks not written to the log yet,
+    private final ArrayList<Long> inMemoryBlockIds = new ArrayList<>(); // in the order they were written
+    private long pendingBytesInMemory;
+    private int totalPendingBlocks;
+    private FileChannel log;
+
+    WriteAheadLog(String pathToLog, int blockSize) {
+        this.pathToLog = Paths.get(pathToLog);
+        this.blockSize = blockSize;
+    }
+
+    private FileChannel getLog() throws IOException {
+        if (log == null)
+            log = FileChannel.open(pathToLog, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return log;
+    }
+
+    boolean hasPendingBlocks() {
+        return totalPendingBlocks > 0;
+    }
+
+    // Adds the block to the current batch, replacing the contents written earlier in the batch
+    void write(String pathToFile, long blockId, byte[] block) throws IOException {
+        PendingBlock previous = pendingBlocks.computeIfAbsent(pathToFile, path -> new TreeMap<>()).get(blockId);
+        if (previous != null && previous.block != null) {
+            previous.block = block;
+            return;
+        }
+        if (previous == null)
+            totalPendingBlocks++;
+        pendingBlocks.get(pathToFile).put(blockId, new PendingBlock(block));
+        inMemoryPaths.add(pathToFile);
+        inMemoryBlockIds.add(blockId);
+        pendingBytesInMemory += block.length;
+        if (pendingBytesInMemory > MAX_PENDING_BYTES_IN_MEMORY)
+            writePendingBlocksToLog();
+    }
+
+    // Returns the contents of the block written in the current batch, or null if the block was not written
+    byte[] read(String pathToFile, long blockId) throws IOException {
+        TreeMap<Long, PendingBlock> fileBlocks = pendingBlocks.get(pathToFile);
+        PendingBlock pendingBlock = fileBlocks == null ? null : fileBlocks.get(blockId);
+        if (pendingBlock == null)
+            return null;
+        if (pendingBlock.block != null)
+            return pendingBlock.block;
+        ByteBuffer block = ByteBuffer.allocate(blockSize);
+        readFully(getLog(), block, pendingBlock.logOffset);
+        return block.array();
+    }
+
+    // Forgets the pending blocks of a file that is deleted
+    void discard(String pathToFile) throws IOException {
+        TreeMap<Long, PendingBlock> fileBlocks = pendingBlocks.remove(pathToFile);
+        if (fileBlocks == null)
+            return;
+        totalPendingBlocks -= fileBlocks.size();
+        if (fileBlocks.values().stream().anyMatch(pendingBlock -> pendingBlock.block == null)) {
+            // Some of the blocks are already in the log, so recovery has to drop them too
+            byte[] path = pathToFile.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(1 + Short.BYTES + path.length + Integer.BYTES);
+            record.put(DISCARD_RECORD).putShort((short) path.length).put(path);
+            record.putInt(calculateChecksum(record.array(), record.position()));
+            writeFully(getLog(), record.flip(), getLog().size());
+        }
+        for (int i = inMemoryPaths.size() - 1; i >= 0; i--) {
+            if (inMemoryPaths.get(i).equals(pathToFile)) {
+                inMemoryPaths.remove(i);
+                inMemoryBlockIds.remove(i);
+            }
+        }
+        pendingBytesInMemory = 0;
+        for (int i = 0; i < inMemoryPaths.size(); i++)
+            pendingBytesInMemory += pendingBlocks.get(inMemoryPaths.get(i)).get(inMemoryBlockIds.get(i)).block.length;
+    }
+
+    // Appends the pending blocks kept in memory to the log, without forcing them to the disk
+    private void writePendingBlocksToLog() throws IOException {
+        FileChannel log = getLog();
+        long offset = log.size();
+        for (int i = 0; i < inMemoryPaths.size(); i++) {
+            PendingBlock pendingBlock = pendingBlocks.get(inMemoryPaths.get(i)).get(inMemoryBlockIds.get(i));
+            byte[] path = inMemoryPaths.get(i).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(1 + Short.BYTES + path.length + Long.BYTES + Integer.BYTES + pendingBlock.block.length + Integer.BYTES);
+            record.put(BLOCK_RECORD).putShort((short) path.length).put(path).putLong(inMemoryBlockIds.get(i));
+            record.putInt(pendingBlock.block.length).put(pendingBlock.block);
+            record.putInt(calculateChecksum(record.array(), record.position()));
+            pendingBlock.logOffset = offset + record.position() - Integer.BYTES - pendingBlock.block.length;
+            pendingBlock.block = null;
+            offset += writeFully(log, record.flip(), offset);
+        }
+        inMemoryPaths.clear();
+        inMemoryBlockIds.clear();
+        pendingBytesInMemory = 0;
+    }
+
+    private static int calculateChecksum(byte[] bytes, int length) {
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, length);
+        return (int) checksum.getValue();
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining())
+            written += channel.write(buffer, position + written);
+        return written;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int bytes = channel.read(buffer, position + read);
+            if (bytes < 0)
+                throw new IOException("The write-ahead log ended while a block was being read from it");
+            read += bytes;
+        }
+    }
+
+    // Makes the blocks of the current batch durable with a single force of the log, then writes them to their files
+    void commit() throws IOException {
+        if (totalPendingBlocks == 0)
+            return;
+        writePendingBlocksToLog();
+        FileChannel log = getLog();
+        ByteBuffer commitRecord = ByteBuffer.allocate(1 + Integer.BYTES + Integer.BYTES);
+        commitRecord.put(COMMIT_RECORD).putInt(totalPendingBlocks);
+        commitRecord.putInt(calculateChecksum(commitRecord.array(), commitRecord.position()));
+        writeFully(log, commitRecord.flip(), log.size());
+        log.force(false);
+
+        applyPendingBlocks();
+        truncate();
+    }
+
+    // Writes the committed blocks to their files, in the order of their block IDs
+    private void applyPendingBlocks() throws IOException {
+        for (Map.Entry<String, TreeMap<Long, PendingBlock>> fileBlocks : pendingBlocks.entrySet()) {
+            try (FileChannel file = FileChannel.open(Paths.get(fileBlocks.getKey()), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                for (Map.Entry<Long, PendingBlock> pendingBlock : fileBlocks.getValue().entrySet())
+                    writeFully(file, ByteBuffer.wrap(read(fileBlocks.getKey(), pendingBlock.getKey())), pendingBlock.getKey() * blockSize);
+                file.force(false);
+            }
+        }
+    }
+
+    private void truncate() throws IOException {
+        pendingBlocks.clear();
+        inMemoryPaths.clear();
+        inMemoryBlockIds.clear();
+        pendingBytesInMemory = 0;
+        totalPendingBlocks = 0;
+        getLog().truncate(0);
+        getLog().force(false);
+    }
+
+    // Called before the files are opened: writes the blocks of a batch whose commit record is in the log to their
+    // files, and drops the blocks of a batch that was not committed. Returns true if a committed batch was applied
+    boolean recover() throws IOException {
+        if (!pendingBlocks.isEmpty())
+            throw new IllegalStateException("The write-ahead log cannot be recovered while a batch has pending blocks");
+        if (!Files.exists(pathToLog) || Files.size(pathToLog) == 0)
+            return false;
+        FileChannel log = getLog();
+        long offset = 0;
+        boolean committed = false;
+        int totalBlocks = 0;
+        while (!committed) {
+            ByteBuffer type = ByteBuffer.allocate(1);
+            if (log.read(type, offset) != 1)
+                break;
+            byte recordType = type.get(0);
+            ByteBuffer record;
+            if (recordType == BLOCK_RECORD || recordType == DISCARD_RECORD) {
+                ByteBuffer pathLength = ByteBuffer.allocate(Short.BYTES);
+                if (log.read(pathLength, offset + 1) != Short.BYTES)
+                    break;
+                if (recordType == DISCARD_RECORD) {
+                    record = ByteBuffer.allocate(1 + Short.BYTES + pathLength.getShort(0) + Integer.BYTES);
+                } else {
+                    int headerLength = 1 + Short.BYTES + pathLength.getShort(0) + Long.BYTES + Integer.BYTES;
+                    ByteBuffer header = ByteBuffer.allocate(headerLength);
+                    if (log.read(header, offset) != headerLength)
+                        break;
+                    if (header.getInt(headerLength - Integer.BYTES) != blockSize)
+                        break;
+                    record = ByteBuffer.allocate(headerLength + blockSize + Integer.BYTES);
+                }
+            } else if (recordType == COMMIT_RECORD) {
+                record = ByteBuffer.allocate(1 + Integer.BYTES + Integer.BYTES);
+            } else {
+                break;
+            }
+            if (log.read(record, offset) != record.capacity())
+                break;
+            int checksumOffset = record.capacity() - Integer.BYTES;
+            if (record.getInt(checksumOffset) != calculateChecksum(record.array(), checksumOffset))
+                break;
+
+            if (recordType == DISCARD_RECORD) {
+                byte[] path = new byte[record.getShort(1)];
+                record.get(1 + Short.BYTES, path);
+                TreeMap<Long, PendingBlock> fileBlocks = pendingBlocks.remove(new String(path, StandardCharsets.UTF_8));
+                if (fileBlocks != null)
+                    totalBlocks -= fileBlocks.size();
+            } else if (recordType == BLOCK_RECORD) {
+                byte[] path = new byte[record.getShort(1)];
+                record.get(1 + Short.BYTES, path);
+                long blockId = record.getLong(1 + Short.BYTES + path.length);
+                String pathToFile = new String(path, StandardCharsets.UTF_8);
+                PendingBlock pendingBlock = new PendingBlock(null);
+                pendingBlock.logOffset = offset + 1 + Short.BYTES + path.length + Long.BYTES + Integer.BYTES;
+                if (pendingBlocks.computeIfAbsent(pathToFile, p -> new TreeMap<>()).put(blockId, pendingBlock) == null)
+                    totalBlocks++;
+            } else {
+                committed = record.getInt(1) == totalBlocks;
+                if (!committed)
+                    break;
+            }
+            offset += record.capacity();
+        }
+
+        totalPendingBlocks = totalBlocks;
+        if (committed)
+            applyPendingBlocks();
+        truncate();
+        return committed;
+    }
+}